@@ -18,27 +18,41 @@
  ******************************************************************************/
 package org.apache.sling.scripting.sightly.js.impl;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 import javax.script.Bindings;
 import javax.script.Compilable;
+import javax.script.CompiledScript;
 import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 import javax.script.ScriptException;
 import javax.script.SimpleScriptContext;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.scripting.LazyBindings;
 import org.apache.sling.scripting.core.ScriptNameAwareReader;
 import org.apache.sling.scripting.sightly.SightlyException;
 import org.apache.sling.scripting.sightly.js.impl.async.AsyncContainer;
 import org.apache.sling.scripting.sightly.js.impl.async.TimingBindingsValuesProvider;
 import org.apache.sling.scripting.sightly.js.impl.async.UnaryCallback;
+import org.apache.sling.scripting.sightly.js.impl.cache.ClassFileCache;
+import org.apache.sling.scripting.sightly.js.impl.cache.CompiledScriptCache;
 import org.apache.sling.scripting.sightly.js.impl.cjs.CommonJsModule;
+import org.apache.sling.scripting.sightly.js.impl.jsapi.LazyMapFunction;
 import org.apache.sling.scripting.sightly.js.impl.loop.EventLoop;
 import org.apache.sling.scripting.sightly.js.impl.loop.EventLoopInterop;
 import org.apache.sling.scripting.sightly.js.impl.loop.Task;
+import org.apache.sling.scripting.sightly.js.impl.rhino.SharedScopeCompiler;
 import org.apache.sling.scripting.sightly.js.impl.use.DependencyResolver;
 import org.apache.sling.scripting.sightly.js.impl.use.UseFunction;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.mozilla.javascript.Context;
 import org.slf4j.LoggerFactory;
 
@@ -50,19 +64,60 @@ public class JsEnvironment {
     private final ScriptEngine jsEngine;
     private final Bindings engineBindings;
     private final DependencyResolver dependencyResolver;
+    private final CompiledScriptCache compiledScriptCache;
+    private final boolean sharedScope;
+    private final boolean failFast;
+    private final ClassFileCache classFileCache;
+    private final Map<String, AsyncContainer> modules = new HashMap<>();
+    private final Map<String, Set<String>> moduleDependencies = new HashMap<>();
     private EventLoop eventLoop;
 
     public JsEnvironment(@NotNull ScriptEngine jsEngine,
-                         @NotNull DependencyResolver dependencyResolver) {
+                         @NotNull DependencyResolver dependencyResolver,
+                         @NotNull CompiledScriptCache compiledScriptCache) {
+        this(jsEngine, dependencyResolver, compiledScriptCache, false, false, null);
+    }
+
+    /**
+     * @param jsEngine            the engine used for running the scripts
+     * @param dependencyResolver  the resolver for the scripts' dependencies
+     * @param compiledScriptCache the cache for compiled scripts
+     * @param sharedScope         if {@code true}, scripts are compiled with Rhino directly and evaluated in thin scopes chained to a
+     *                            sealed top-level scope shared by all evaluations (see {@link SharedScopeCompiler})
+     * @param failFast            if {@code true}, the event loop discards all its queued tasks after the first error (see
+     *                            {@link EventLoop#setFailFast(boolean)})
+     * @param classFileCache      the persistent cache for the classes generated when compiling scripts in shared scope mode; can be
+     *                            {@code null}
+     */
+    public JsEnvironment(@NotNull ScriptEngine jsEngine,
+                         @NotNull DependencyResolver dependencyResolver,
+                         @NotNull CompiledScriptCache compiledScriptCache,
+                         boolean sharedScope,
+                         boolean failFast,
+                         @Nullable ClassFileCache classFileCache) {
         this.jsEngine = jsEngine;
         this.dependencyResolver = dependencyResolver;
+        this.compiledScriptCache = compiledScriptCache;
+        this.sharedScope = sharedScope;
+        this.failFast = failFast;
+        this.classFileCache = classFileCache;
         engineBindings = new LazyBindings();
         TimingBindingsValuesProvider.INSTANCE.addBindings(engineBindings);
+        engineBindings.put(Variables.LAZY_MAP, LazyMapFunction.INSTANCE);
+    }
+
+    public ScriptEngine getEngine() {
+        return jsEngine;
+    }
+
+    public DependencyResolver getDependencyResolver() {
+        return dependencyResolver;
     }
 
     public void initialize() {
         Context context = Context.enter();
         eventLoop = EventLoopInterop.obtainEventLoop(context);
+        eventLoop.setFailFast(failFast);
     }
 
     public void cleanup() {
@@ -70,69 +125,285 @@ public class JsEnvironment {
         if (context == null) {
             throw new IllegalStateException("No current context");
         }
+        modules.clear();
+        moduleDependencies.clear();
         EventLoopInterop.cleanupEventLoop(context);
         Context.exit();
     }
 
     public void runScript(ScriptNameAwareReader reader, Bindings globalBindings, Bindings arguments, UnaryCallback callback) {
+        runScript(reader, globalBindings, arguments, callback, null);
+    }
+
+    public AsyncContainer runScript(ScriptNameAwareReader reader, Bindings globalBindings, Bindings arguments) {
+        AsyncContainer asyncContainer = new AsyncContainer();
+        runScript(reader, globalBindings, arguments, asyncContainer.createCompletionCallback(), asyncContainer.createFailureCallback());
+        return asyncContainer;
+    }
+
+    /**
+     * Runs the script stored by {@code scriptResource}. The compiled script is retrieved from the {@link CompiledScriptCache}, if the
+     * cache holds an up-to-date version of it; otherwise the script's content is read and compiled.
+     *
+     * @param scriptResource the script resource
+     * @param globalBindings the global bindings
+     * @param arguments      the arguments passed to the script
+     * @param callback       the callback which will receive the script's result
+     */
+    public void runScript(Resource scriptResource, Bindings globalBindings, Bindings arguments, UnaryCallback callback) {
+        runScript(scriptResource, globalBindings, arguments, callback, null);
+    }
+
+    /**
+     * Runs the script stored by {@code scriptResource}. The returned container is failed if the script, or any of its dependencies,
+     * fails.
+     *
+     * @param scriptResource the script resource
+     * @param globalBindings the global bindings
+     * @param arguments      the arguments passed to the script
+     * @return the container that will hold the script's result
+     */
+    public AsyncContainer runScript(Resource scriptResource, Bindings globalBindings, Bindings arguments) {
+        AsyncContainer asyncContainer = new AsyncContainer();
+        runScript(scriptResource, globalBindings, arguments, asyncContainer.createCompletionCallback(),
+                asyncContainer.createFailureCallback());
+        return asyncContainer;
+    }
+
+    /**
+     * Runs the script stored by {@code scriptResource} as a module. A module is evaluated at most once between {@link #initialize()}
+     * and {@link #cleanup()}; subsequent calls for the same script return the container of the first evaluation, regardless of
+     * whether that evaluation has completed or not.
+     * <p>
+     * If the module is still being evaluated and it depends, directly or through other modules which are still being evaluated, on
+     * the {@code dependent} script, neither of them could ever complete; the returned container is then failed with a
+     * {@link SightlyException} describing the circular dependency.</p>
+     *
+     * @param scriptResource the module's script resource
+     * @param globalBindings the global bindings
+     * @param dependent      the path of the script depending on the module; can be {@code null}
+     * @return the container that will hold the module's exported value or the module's error
+     */
+    public AsyncContainer runModule(Resource scriptResource, Bindings globalBindings, @Nullable String dependent) {
+        String path = scriptResource.getPath();
+        AsyncContainer module = modules.get(path);
+        if (module == null) {
+            module = new AsyncContainer();
+            // register the module before running it, so that circular dependencies don't evaluate it again
+            modules.put(path, module);
+            addModuleDependency(dependent, path);
+            runScript(scriptResource, globalBindings, Utils.EMPTY_BINDINGS, module.createCompletionCallback(),
+                    module.createFailureCallback());
+            return module;
+        }
+        if (dependent != null && !module.isDone()) {
+            List<String> cycle = findPendingDependencyPath(path, dependent, new HashSet<>());
+            if (cycle != null) {
+                AsyncContainer failed = new AsyncContainer();
+                failed.fail(new SightlyException("Circular dependency between JS modules: " + dependent + " -> " +
+                        String.join(" -> ", cycle)));
+                return failed;
+            }
+        }
+        addModuleDependency(dependent, path);
+        return module;
+    }
+
+    private void addModuleDependency(String dependent, String dependency) {
+        if (dependent != null) {
+            moduleDependencies.computeIfAbsent(dependent, key -> new HashSet<>()).add(dependency);
+        }
+    }
+
+    /**
+     * Finds a chain of dependencies leading from the module {@code from} to the script {@code to}, following only the modules which
+     * are still being evaluated.
+     *
+     * @return the chain, starting with {@code from} and ending with {@code to}, or {@code null} if there's no such chain
+     */
+    private List<String> findPendingDependencyPath(String from, String to, Set<String> visited) {
+        if (from.equals(to)) {
+            List<String> chain = new ArrayList<>();
+            chain.add(to);
+            return chain;
+        }
+        AsyncContainer module = modules.get(from);
+        if ((module != null && module.isDone()) || !visited.add(from)) {
+            return null;
+        }
+        Set<String> dependencies = moduleDependencies.get(from);
+        if (dependencies != null) {
+            for (String dependency : dependencies) {
+                List<String> chain = findPendingDependencyPath(dependency, to, visited);
+                if (chain != null) {
+                    chain.add(0, from);
+                    return chain;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void runScript(ScriptNameAwareReader reader, Bindings globalBindings, Bindings arguments, UnaryCallback callback,
+                           UnaryCallback failureCallback) {
         ScriptContext scriptContext = new SimpleScriptContext();
         CommonJsModule module = new CommonJsModule();
         Bindings scriptBindings = buildBindings(reader, globalBindings, arguments, module);
         scriptContext.setBindings(scriptBindings, ScriptContext.ENGINE_SCOPE);
-        runScript(reader, scriptContext, callback);
+        eventLoop.schedule(scriptTask(reader, scriptContext, callback, failureCallback));
     }
 
-    public AsyncContainer runScript(ScriptNameAwareReader reader, Bindings globalBindings, Bindings arguments) {
-        AsyncContainer asyncContainer = new AsyncContainer();
-        runScript(reader, globalBindings, arguments, asyncContainer.createCompletionCallback());
-        return asyncContainer;
+    private void runScript(Resource scriptResource, Bindings globalBindings, Bindings arguments, UnaryCallback callback,
+                           UnaryCallback failureCallback) {
+        ScriptContext scriptContext = new SimpleScriptContext();
+        CommonJsModule module = new CommonJsModule();
+        Bindings scriptBindings = buildBindings(scriptResource.getPath(), globalBindings, arguments, module);
+        scriptContext.setBindings(scriptBindings, ScriptContext.ENGINE_SCOPE);
+        eventLoop.schedule(scriptTask(scriptResource, scriptContext, callback, failureCallback));
     }
 
     private Bindings buildBindings(ScriptNameAwareReader reader, Bindings globalBindings, Bindings arguments, CommonJsModule commonJsModule) {
-        Bindings bindings = new LazyBindings();
-        bindings.putAll(globalBindings);
+        return buildBindings(reader.getScriptName(), globalBindings, arguments, commonJsModule);
+    }
+
+    private Bindings buildBindings(String scriptName, Bindings globalBindings, Bindings arguments, CommonJsModule commonJsModule) {
+        Bindings bindings = new LayeredBindings(globalBindings);
         bindings.putAll(engineBindings);
-        bindings.put(ScriptEngine.FILENAME, reader.getScriptName());
+        bindings.put(ScriptEngine.FILENAME, scriptName);
         bindings.put(Variables.MODULE, commonJsModule);
         bindings.put(Variables.EXPORTS, commonJsModule.getExports());
-        bindings.put(Variables.CONSOLE, new Console(LoggerFactory.getLogger(reader.getScriptName())));
+        bindings.put(Variables.CONSOLE, new Console(LoggerFactory.getLogger(scriptName)));
         UseFunction useFunction = new UseFunction(this, dependencyResolver, bindings, arguments);
         bindings.put(Variables.JS_USE, useFunction);
         return bindings;
     }
 
-    private void runScript(ScriptNameAwareReader reader, ScriptContext scriptContext, UnaryCallback callback) {
-        eventLoop.schedule(scriptTask(reader, scriptContext, callback));
-    }
-
-    private Task scriptTask(final ScriptNameAwareReader reader, final ScriptContext scriptContext, final UnaryCallback callback) {
+    private Task scriptTask(final ScriptNameAwareReader reader, final ScriptContext scriptContext, final UnaryCallback callback,
+                            final UnaryCallback failureCallback) {
         return new Task(() -> {
             try {
                 Object result;
-                if (jsEngine instanceof Compilable) {
-                    result = ((Compilable) jsEngine).compile(reader).eval(scriptContext);
+                if (isCompilable()) {
+                    CompiledScript compiledScript = compile(reader);
+                    result = evaluate(scriptContext, () -> compiledScript.eval(scriptContext));
                 } else {
-                    result = jsEngine.eval(reader, scriptContext);
-                }
-                if (result == null) {
-                    CommonJsModule commonJsModule =
-                        (CommonJsModule) scriptContext.getBindings(ScriptContext.ENGINE_SCOPE).get(Variables.MODULE);
-                    if (commonJsModule != null && commonJsModule.isModified()) {
-                        result = commonJsModule.getExports();
-                    }
-                }
-                if (result instanceof AsyncContainer) {
-                    ((AsyncContainer) result).addListener(callback);
-                } else {
-                    callback.invoke(result);
+                    result = evaluate(scriptContext, () -> jsEngine.eval(reader, scriptContext));
                 }
+                complete(result, scriptContext, callback, failureCallback);
             } catch (ScriptException e) {
-                throw new SightlyException(e);
+                throw fail(new SightlyException(e), failureCallback);
+            } catch (RuntimeException e) {
+                throw fail(e, failureCallback);
             } finally {
                 IOUtils.closeQuietly(reader);
             }
         });
     }
 
+    private Task scriptTask(final Resource scriptResource, final ScriptContext scriptContext, final UnaryCallback callback,
+                            final UnaryCallback failureCallback) {
+        return new Task(() -> {
+            if (!isCompilable()) {
+                scriptTask(Utils.readScript(scriptResource), scriptContext, callback, failureCallback).run();
+                return;
+            }
+            try {
+                String path = scriptResource.getPath();
+                long lastModified = scriptResource.getResourceMetadata().getModificationTime();
+                CompiledScript compiledScript = compiledScriptCache.get(path, lastModified);
+                if (compiledScript == null) {
+                    ScriptNameAwareReader reader = Utils.readScript(scriptResource);
+                    try {
+                        compiledScript = compile(reader);
+                    } finally {
+                        IOUtils.closeQuietly(reader);
+                    }
+                    compiledScriptCache.put(path, lastModified, compiledScript);
+                }
+                CompiledScript evaluated = compiledScript;
+                complete(evaluate(scriptContext, () -> evaluated.eval(scriptContext)), scriptContext, callback, failureCallback);
+            } catch (ScriptException e) {
+                throw fail(new SightlyException(e), failureCallback);
+            } catch (RuntimeException e) {
+                throw fail(e, failureCallback);
+            }
+        });
+    }
+
+    /**
+     * Propagates a script's error to the script's failure callback, so that the scripts waiting for it are notified, and returns the
+     * error, which is then rethrown to the event loop.
+     */
+    private static RuntimeException fail(RuntimeException error, UnaryCallback failureCallback) {
+        if (failureCallback != null) {
+            failureCallback.invoke(error);
+        }
+        return error;
+    }
+
+    /**
+     * Compiles a script and stores it in the {@link CompiledScriptCache}, without running it. Scripts cannot be precompiled if the
+     * engine does not support compilation.
+     *
+     * @param reader       the script reader; the script's name has to be the path of the script resource
+     * @param lastModified the last modification time of the script resource
+     * @return {@code true} if the script was compiled, {@code false} if the engine does not support compilation
+     * @throws ScriptException if the script cannot be compiled
+     */
+    public boolean precompile(ScriptNameAwareReader reader, long lastModified) throws ScriptException {
+        if (!isCompilable()) {
+            return false;
+        }
+        compiledScriptCache.put(reader.getScriptName(), lastModified, compile(reader));
+        return true;
+    }
+
+    private boolean isCompilable() {
+        return sharedScope || jsEngine instanceof Compilable;
+    }
+
+    private CompiledScript compile(ScriptNameAwareReader reader) throws ScriptException {
+        if (sharedScope) {
+            return SharedScopeCompiler.compile(jsEngine, reader, classFileCache);
+        }
+        return ((Compilable) jsEngine).compile(reader);
+    }
+
+    /**
+     * Evaluates a script, letting the script's {@link UseFunction} know that the evaluation is in progress, so that the
+     * dependency-free {@code use} calls made during the evaluation are run synchronously.
+     */
+    private static Object evaluate(ScriptContext scriptContext, Evaluation evaluation) throws ScriptException {
+        Object useFunction = scriptContext.getBindings(ScriptContext.ENGINE_SCOPE).get(Variables.JS_USE);
+        if (!(useFunction instanceof UseFunction)) {
+            return evaluation.eval();
+        }
+        ((UseFunction) useFunction).setEvaluating(true);
+        try {
+            return evaluation.eval();
+        } finally {
+            ((UseFunction) useFunction).setEvaluating(false);
+        }
+    }
+
+    private void complete(Object result, ScriptContext scriptContext, UnaryCallback callback, UnaryCallback failureCallback) {
+        if (result == null) {
+            CommonJsModule commonJsModule =
+                (CommonJsModule) scriptContext.getBindings(ScriptContext.ENGINE_SCOPE).get(Variables.MODULE);
+            if (commonJsModule != null && commonJsModule.isModified()) {
+                result = commonJsModule.getExports();
+            }
+        }
+        if (result instanceof AsyncContainer) {
+            ((AsyncContainer) result).addListener(callback, failureCallback);
+        } else {
+            callback.invoke(result);
+        }
+    }
 
+    @FunctionalInterface
+    private interface Evaluation {
+
+        Object eval() throws ScriptException;
+    }
 }
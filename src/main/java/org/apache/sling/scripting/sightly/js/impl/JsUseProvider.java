@@ -18,27 +18,48 @@
  ******************************************************************************/
 package org.apache.sling.scripting.sightly.js.impl;
 
+import java.io.File;
+import java.util.Dictionary;
+import java.util.Hashtable;
+
+import javax.management.DynamicMBean;
+import javax.management.NotCompliantMBeanException;
+import javax.management.StandardMBean;
 import javax.script.Bindings;
 import javax.script.ScriptEngine;
 import javax.script.ScriptEngineManager;
+import javax.servlet.ServletRequest;
 
+import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
-import org.apache.sling.api.scripting.LazyBindings;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.scripting.SlingBindings;
 import org.apache.sling.scripting.api.resource.ScriptingResourceResolverProvider;
-import org.apache.sling.scripting.core.ScriptNameAwareReader;
 import org.apache.sling.scripting.sightly.SightlyException;
 import org.apache.sling.scripting.sightly.js.impl.async.AsyncContainer;
 import org.apache.sling.scripting.sightly.js.impl.async.AsyncExtractor;
+import org.apache.sling.scripting.sightly.js.impl.cache.ClassFileCache;
+import org.apache.sling.scripting.sightly.js.impl.cache.CompiledScriptCache;
+import org.apache.sling.scripting.sightly.js.impl.cache.CompiledScriptCacheMBean;
 import org.apache.sling.scripting.sightly.js.impl.jsapi.ProxyAsyncScriptableFactory;
+import org.apache.sling.scripting.sightly.js.impl.jsapi.SlyBindingsValuesProvider;
+import org.apache.sling.scripting.sightly.js.impl.rhino.ContextSession;
 import org.apache.sling.scripting.sightly.js.impl.rhino.JsValueAdapter;
+import org.apache.sling.scripting.sightly.js.impl.use.DependencyResolutionCache;
 import org.apache.sling.scripting.sightly.js.impl.use.DependencyResolver;
 import org.apache.sling.scripting.sightly.render.RenderContext;
 import org.apache.sling.scripting.sightly.use.ProviderOutcome;
 import org.apache.sling.scripting.sightly.use.UseProvider;
+import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
 import org.osgi.service.component.annotations.Reference;
 import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Use provider for JavaScript Use-API objects.
@@ -61,10 +82,113 @@ public class JsUseProvider implements UseProvider {
         )
         int service_ranking() default 80;
 
+        @AttributeDefinition(
+                name = "Compiled Scripts Cache Size",
+                description = "The maximum number of compiled JavaScript Use-API scripts and dependencies kept in memory across " +
+                        "requests. A value smaller than 1 disables the cache."
+        )
+        int compiled_scripts_cache_size() default 1000;
+
+        @AttributeDefinition(
+                name = "Shared Scope",
+                description = "If enabled, scripts are evaluated in lightweight scopes chained to the root scope of the JavaScript " +
+                        "engine or, if the engine doesn't use one, to a sealed scope holding the standard JavaScript objects, which " +
+                        "is initialised only once and shared by all evaluations. Scripts are compiled and evaluated with the engine's " +
+                        "wrap factory, language version, optimization level, debug and source generation flags and instruction " +
+                        "observer threshold. The engine's context factory, with its feature flags and instruction observer, applies " +
+                        "only if no other Rhino context is already entered on the request thread; enable the Context Session to have " +
+                        "the engine's context entered for the whole request."
+        )
+        boolean shared_scope() default false;
+
+        @AttributeDefinition(
+                name = "Lazy Collections",
+                description = "If enabled, the arrays, lists and maps returned by the Use-API scripts are provided to HTL as read-only " +
+                        "views whose elements are converted when they are accessed, instead of being copied upfront."
+        )
+        boolean lazy_collections() default false;
+
+        @AttributeDefinition(
+                name = "Memoize Properties",
+                description = "If enabled, the value of a Use-object's property is computed only once per Use-object, when HTL reads " +
+                        "the property for the first time. Properties backed by JavaScript functions or getters are therefore evaluated " +
+                        "at most once per Use-object."
+        )
+        boolean memoize_properties() default false;
+
+        @AttributeDefinition(
+                name = "Fail Fast",
+                description = "If enabled, the first error thrown while evaluating a Use-API script or one of its dependencies " +
+                        "cancels all the pending asynchronous tasks of the evaluation, instead of running them before reporting the " +
+                        "error."
+        )
+        boolean fail_fast() default false;
+
+        @AttributeDefinition(
+                name = "Request Scoped Environment",
+                description = "If enabled, the JavaScript engine, the dependency resolver and the script environment are created once " +
+                        "per request and reused by all the JavaScript Use-API calls of the request, instead of being created for each " +
+                        "call. Modules are still evaluated once per call."
+        )
+        boolean request_scoped_environment() default false;
+
+        @AttributeDefinition(
+                name = "Persistent Class Cache",
+                description = "If enabled together with the shared scope, the classes generated when compiling the Use-API scripts " +
+                        "are stored in the bundle's data area and reused after a restart, as long as the scripts' content does not " +
+                        "change."
+        )
+        boolean persistent_class_cache() default false;
+
+        @AttributeDefinition(
+                name = "Context Session",
+                description = "If enabled, a Rhino context is entered by the first Use-API call of a request and reused by all the " +
+                        "JavaScript operations of the request (evaluating the scripts and their dependencies, unwrapping promises, " +
+                        "reading the properties of the Use-objects), instead of being entered and exited by each operation. The " +
+                        "context is created with the settings of the Rhino script engine and is exited when the request ends."
+        )
+        boolean context_session() default false;
+
+        @AttributeDefinition(
+                name = "Warm-up",
+                description = "If enabled, the JavaScript Use-API is warmed up in the background when this component is activated: " +
+                        "the script factories and the Q library are loaded and the scripts matching the warm-up scripts are " +
+                        "precompiled. The warm-up reads the scripts through the service resource resolver of this bundle."
+        )
+        boolean warm_up() default false;
+
+        @AttributeDefinition(
+                name = "Warm-up Scripts",
+                description = "The paths of the scripts precompiled by the warm-up. Globs are supported: '*' and '?' match within a " +
+                        "path segment, while '**' matches across segments (e.g. '/apps/myproject/**/*.js')."
+        )
+        String[] warm_up_scripts() default {};
+
+        @AttributeDefinition(
+                name = "Warm-up Threads",
+                description = "The number of threads compiling scripts during the warm-up. A value smaller than 1 uses one thread per " +
+                        "available processor."
+        )
+        int warm_up_threads() default 0;
+
     }
 
-    private static final String JS_ENGINE_NAME = "rhino";
-    private static final JsValueAdapter jsValueAdapter = new JsValueAdapter(new AsyncExtractor());
+    public static final String JS_ENGINE_NAME = "rhino";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JsUseProvider.class);
+    private static final String REQUEST_ENVIRONMENT = JsUseProvider.class.getName() + ".environment";
+    private static final String CLASS_FILE_CACHE_DIRECTORY = "compiled-scripts";
+    private static final String CACHE_MBEAN_NAME = "org.apache.sling.scripting.sightly.js:type=CompiledScriptCache";
+
+    private volatile CompiledScriptCache compiledScriptCache = new CompiledScriptCache(0);
+    private volatile boolean sharedScope;
+    private volatile boolean failFast;
+    private volatile boolean requestScopedEnvironment;
+    private volatile boolean contextSession;
+    private volatile ClassFileCache classFileCache;
+    private ScriptWarmUp warmUp;
+    private ServiceRegistration<?> cacheMBeanRegistration;
+    private volatile JsValueAdapter jsValueAdapter = new JsValueAdapter(new AsyncExtractor());
 
     @Reference
     private ScriptEngineManager scriptEngineManager;
@@ -75,35 +199,169 @@ public class JsUseProvider implements UseProvider {
     @Reference
     private ScriptingResourceResolverProvider scriptingResourceResolverProvider;
 
+    @Reference
+    private DependencyResolutionCache dependencyResolutionCache;
+
+    @Reference
+    private SlyBindingsValuesProvider slyBindingsValuesProvider;
+
+    @Reference
+    private ResourceResolverFactory resourceResolverFactory;
+
+    @Activate
+    protected void activate(Configuration configuration, BundleContext bundleContext) {
+        compiledScriptCache = new CompiledScriptCache(configuration.compiled_scripts_cache_size());
+        registerCacheMBean(bundleContext);
+        sharedScope = configuration.shared_scope();
+        classFileCache = null;
+        if (sharedScope && configuration.persistent_class_cache()) {
+            File directory = bundleContext.getDataFile(CLASS_FILE_CACHE_DIRECTORY);
+            if (directory != null) {
+                classFileCache = new ClassFileCache(directory);
+            } else {
+                LOGGER.warn("The persistent class cache is not available, since the framework does not provide a bundle data area.");
+            }
+        }
+        failFast = configuration.fail_fast();
+        requestScopedEnvironment = configuration.request_scoped_environment();
+        contextSession = configuration.context_session();
+        jsValueAdapter = new JsValueAdapter(new AsyncExtractor(), configuration.lazy_collections(),
+                configuration.memoize_properties());
+        if (configuration.warm_up()) {
+            warmUp = new ScriptWarmUp(resourceResolverFactory, slyBindingsValuesProvider, this::createEnvironment,
+                    configuration.warm_up_scripts(), configuration.warm_up_threads());
+            warmUp.start();
+        }
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        if (warmUp != null) {
+            warmUp.stop();
+            warmUp = null;
+        }
+        if (cacheMBeanRegistration != null) {
+            cacheMBeanRegistration.unregister();
+            cacheMBeanRegistration = null;
+        }
+        LOGGER.debug("Compiled scripts cache statistics: {}", compiledScriptCache);
+        compiledScriptCache.clear();
+    }
+
+    /**
+     * Exposes the size and the hit, miss and eviction counters of the compiled scripts cache as an MBean, registered through the JMX
+     * whiteboard.
+     */
+    private void registerCacheMBean(BundleContext bundleContext) {
+        try {
+            Dictionary<String, Object> properties = new Hashtable<>();
+            properties.put("jmx.objectname", CACHE_MBEAN_NAME);
+            properties.put(Constants.SERVICE_DESCRIPTION, "Apache Sling HTL JavaScript Use-API compiled scripts cache");
+            cacheMBeanRegistration = bundleContext.registerService(DynamicMBean.class.getName(),
+                    new StandardMBean(compiledScriptCache, CompiledScriptCacheMBean.class), properties);
+        } catch (NotCompliantMBeanException e) {
+            LOGGER.warn("Unable to register the MBean of the compiled scripts cache.", e);
+        }
+    }
+
     @Override
     public ProviderOutcome provide(String identifier, RenderContext renderContext, Bindings arguments) {
-        Bindings globalBindings = new LazyBindings();
-        globalBindings.putAll(renderContext.getBindings());
+        Bindings globalBindings = new LayeredBindings(renderContext.getBindings());
         if (!Utils.isJsScript(identifier)) {
             return ProviderOutcome.failure();
         }
-        ScriptEngine jsEngine = scriptEngineManager.getEngineByName(JS_ENGINE_NAME);
-        if (jsEngine == null) {
-            return ProviderOutcome.failure(new SightlyException("Failed to obtain a " + JS_ENGINE_NAME + " JavaScript engine."));
-        }
-        JsEnvironment environment = null;
+        RequestEnvironment requestEnvironment = null;
         try {
-            ResourceResolver slingScriptingResolver = scriptingResourceResolverProvider.getRequestScopedResourceResolver();
-            DependencyResolver dependencyResolver = new DependencyResolver(slingScriptingResolver);
-            environment = new JsEnvironment(jsEngine, dependencyResolver);
-            environment.initialize();
-            ScriptNameAwareReader reader = dependencyResolver.resolve(globalBindings, identifier);
-            if (reader != null) {
-                proxyAsyncScriptableFactory.registerProxies(slingScriptingResolver, environment, globalBindings);
-                AsyncContainer asyncContainer = environment.runScript(reader, globalBindings, arguments);
-                return ProviderOutcome.success(jsValueAdapter.adapt(asyncContainer));
+            requestEnvironment = acquireEnvironment(globalBindings);
+            if (requestEnvironment == null) {
+                return ProviderOutcome.failure(new SightlyException("Failed to obtain a " + JS_ENGINE_NAME + " JavaScript engine."));
             }
-            return ProviderOutcome.failure();
+            JsEnvironment environment = requestEnvironment.environment;
+            if (contextSession) {
+                // keeps the context entered until the end of the request, for HTL's reads of the Use-object's properties
+                ContextSession.begin(environment.getEngine());
+            }
+            environment.initialize();
+            Resource scriptResource = requestEnvironment.dependencyResolver.resolveScript(globalBindings, identifier);
+            Bindings scriptBindings =
+                    proxyAsyncScriptableFactory.registerProxies(requestEnvironment.resourceResolver, environment, globalBindings);
+            AsyncContainer asyncContainer = environment.runScript(scriptResource, scriptBindings, arguments);
+            return ProviderOutcome.success(jsValueAdapter.adapt(asyncContainer));
         } catch (Exception e) {
             return ProviderOutcome.failure(e);
         } finally {
-            if (environment != null) {
+            if (requestEnvironment != null) {
+                requestEnvironment.release();
+            }
+        }
+    }
+
+    /**
+     * Returns the environment for a Use-API call. If the request scoped environment is enabled, the environment attached to the
+     * current request is reused, unless it is already in use by an enclosing call; otherwise a new environment is created and, the
+     * first time, attached to the request for the rest of the request.
+     *
+     * @param bindings the call's bindings
+     * @return the environment or {@code null} if no JavaScript engine is available
+     */
+    private RequestEnvironment acquireEnvironment(Bindings bindings) {
+        ResourceResolver resolver = scriptingResourceResolverProvider.getRequestScopedResourceResolver();
+        ServletRequest request = requestScopedEnvironment ? (ServletRequest) bindings.get(SlingBindings.REQUEST) : null;
+        RequestEnvironment attached = request == null ? null : (RequestEnvironment) request.getAttribute(REQUEST_ENVIRONMENT);
+        if (attached != null && !attached.inUse && attached.resourceResolver == resolver
+                && attached.compiledScriptCache == compiledScriptCache) {
+            attached.inUse = true;
+            return attached;
+        }
+        JsEnvironment environment = createEnvironment(resolver);
+        if (environment == null) {
+            return null;
+        }
+        RequestEnvironment created = new RequestEnvironment(resolver, environment.getDependencyResolver(), compiledScriptCache,
+                environment);
+        created.inUse = true;
+        if (request != null && (attached == null || !attached.inUse)) {
+            request.setAttribute(REQUEST_ENVIRONMENT, created);
+        }
+        return created;
+    }
+
+    /**
+     * Creates an environment using the current configuration.
+     *
+     * @param resolver the resource resolver for the scripts' dependencies
+     * @return the environment or {@code null} if no JavaScript engine is available
+     */
+    private JsEnvironment createEnvironment(ResourceResolver resolver) {
+        ScriptEngine jsEngine = scriptEngineManager.getEngineByName(JS_ENGINE_NAME);
+        if (jsEngine == null) {
+            return null;
+        }
+        DependencyResolver dependencyResolver = new DependencyResolver(resolver, dependencyResolutionCache);
+        return new JsEnvironment(jsEngine, dependencyResolver, compiledScriptCache, sharedScope, failFast, classFileCache);
+    }
+
+    private static final class RequestEnvironment {
+
+        private final ResourceResolver resourceResolver;
+        private final DependencyResolver dependencyResolver;
+        private final CompiledScriptCache compiledScriptCache;
+        private final JsEnvironment environment;
+        private boolean inUse;
+
+        RequestEnvironment(ResourceResolver resourceResolver, DependencyResolver dependencyResolver,
+                           CompiledScriptCache compiledScriptCache, JsEnvironment environment) {
+            this.resourceResolver = resourceResolver;
+            this.dependencyResolver = dependencyResolver;
+            this.compiledScriptCache = compiledScriptCache;
+            this.environment = environment;
+        }
+
+        void release() {
+            try {
                 environment.cleanup();
+            } finally {
+                inUse = false;
             }
         }
     }
@@ -0,0 +1,211 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ ******************************************************************************/
+package org.apache.sling.scripting.sightly.js.impl;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import javax.script.Bindings;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Copy-on-write {@link Bindings} layered over a parent map. The layer only stores the bindings which are added, replaced or removed
+ * through it, while all the other lookups are delegated to the parent, so creating a layer costs O(overrides) instead of
+ * O(all bindings).
+ * <p>
+ * The parent is never modified by the layer. The layer does not take a snapshot of the parent either: the parent's bindings which
+ * are not overridden or removed through the layer are read live, so the changes made to the parent, such as the render bindings
+ * HTL updates while a template is rendered, are visible through the layer. The {@link #size()} and the entries of the layer are
+ * computed against the current bindings of the parent, at a cost of O(overrides).</p>
+ */
+public class LayeredBindings extends AbstractMap<String, Object> implements Bindings {
+
+    /**
+     * Marks a binding of the parent which was removed from this layer.
+     */
+    private static final Object REMOVED = new Object();
+
+    private final Map<String, Object> parent;
+    private Map<String, Object> overrides;
+    private Set<Map.Entry<String, Object>> entrySet;
+
+    public LayeredBindings(@NotNull Map<String, Object> parent) {
+        this.parent = parent;
+    }
+
+    @Override
+    public Object get(Object key) {
+        if (overrides != null && overrides.containsKey(key)) {
+            Object value = overrides.get(key);
+            return value == REMOVED ? null : value;
+        }
+        return parent.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        if (overrides != null && overrides.containsKey(key)) {
+            return overrides.get(key) != REMOVED;
+        }
+        return parent.containsKey(key);
+    }
+
+    @Override
+    public Object put(String name, Object value) {
+        checkKey(name);
+        Object previous = get(name);
+        overrides().put(name, value);
+        return previous;
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ?> toMerge) {
+        for (Map.Entry<? extends String, ?> entry : toMerge.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public Object remove(Object key) {
+        if (!containsKey(key)) {
+            return null;
+        }
+        Object previous = get(key);
+        // the marker is kept even if the parent doesn't contain the key, so the binding stays removed if the parent adds it later
+        overrides().put((String) key, REMOVED);
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        Map<String, Object> layer = overrides();
+        layer.clear();
+        for (String key : parent.keySet()) {
+            layer.put(key, REMOVED);
+        }
+    }
+
+    @Override
+    public int size() {
+        int size = parent.size();
+        if (overrides != null) {
+            for (Map.Entry<String, Object> entry : overrides.entrySet()) {
+                boolean inParent = parent.containsKey(entry.getKey());
+                if (entry.getValue() == REMOVED) {
+                    if (inParent) {
+                        size--;
+                    }
+                } else if (!inParent) {
+                    size++;
+                }
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @NotNull
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<Map.Entry<String, Object>>() {
+                @NotNull
+                @Override
+                public Iterator<Map.Entry<String, Object>> iterator() {
+                    return new LayeredIterator();
+                }
+
+                @Override
+                public int size() {
+                    return LayeredBindings.this.size();
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    private Map<String, Object> overrides() {
+        if (overrides == null) {
+            overrides = new HashMap<>();
+        }
+        return overrides;
+    }
+
+    private static void checkKey(String key) {
+        if (key == null) {
+            throw new NullPointerException("Binding names cannot be null.");
+        }
+        if (key.isEmpty()) {
+            throw new IllegalArgumentException("Binding names cannot be empty.");
+        }
+    }
+
+    /**
+     * Iterates over the bindings of this layer, followed by the bindings of the parent which are not overridden or removed.
+     */
+    private final class LayeredIterator implements Iterator<Map.Entry<String, Object>> {
+
+        private final Iterator<Map.Entry<String, Object>> layerIterator =
+                overrides == null ? null : overrides.entrySet().iterator();
+        private final Iterator<Map.Entry<String, Object>> parentIterator = parent.entrySet().iterator();
+        private Map.Entry<String, Object> next;
+
+        @Override
+        public boolean hasNext() {
+            if (next != null) {
+                return true;
+            }
+            while (layerIterator != null && layerIterator.hasNext()) {
+                Map.Entry<String, Object> entry = layerIterator.next();
+                if (entry.getValue() != REMOVED) {
+                    next = new SimpleImmutableEntry<>(entry);
+                    return true;
+                }
+            }
+            while (parentIterator.hasNext()) {
+                Map.Entry<String, Object> entry = parentIterator.next();
+                if (overrides == null || !overrides.containsKey(entry.getKey())) {
+                    next = new SimpleImmutableEntry<>(entry);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public Map.Entry<String, Object> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<String, Object> entry = next;
+            next = null;
+            return entry;
+        }
+    }
+}
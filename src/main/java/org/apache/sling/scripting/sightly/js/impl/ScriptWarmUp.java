@@ -0,0 +1,281 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ ******************************************************************************/
+package org.apache.sling.scripting.sightly.js.impl;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.scripting.LazyBindings;
+import org.apache.sling.scripting.core.ScriptNameAwareReader;
+import org.apache.sling.scripting.sightly.js.impl.jsapi.SlyBindingsValuesProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Warms up the JavaScript Use-API in the background: loads the Q library and the factories of the {@link SlyBindingsValuesProvider},
+ * and precompiles the scripts matching a list of paths or globs into the compiled scripts cache. In globs, {@code *} and {@code ?}
+ * match within a path segment, while {@code **} matches across segments.
+ * <p>
+ * The scripts are read by a single coordinator thread, using the bundle's service resource resolver, and are then compiled in
+ * parallel. Progress and timings are logged. The threads are released once the warm-up is over.</p>
+ */
+final class ScriptWarmUp {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ScriptWarmUp.class);
+
+    private final ResourceResolverFactory resourceResolverFactory;
+    private final SlyBindingsValuesProvider slyBindingsValuesProvider;
+    private final Function<ResourceResolver, JsEnvironment> environmentFactory;
+    private final String[] patterns;
+    private final int threads;
+    private final ExecutorService executor;
+
+    /**
+     * @param resourceResolverFactory   the factory for the service resource resolver used for reading the scripts
+     * @param slyBindingsValuesProvider the provider whose factories are loaded
+     * @param environmentFactory        creates environments for a resource resolver; returns {@code null} if no script engine is
+     *                                  available
+     * @param patterns                  the paths or globs of the scripts to precompile
+     * @param threads                   the number of compilation threads; a value smaller than {@code 1} uses one thread per core
+     */
+    ScriptWarmUp(ResourceResolverFactory resourceResolverFactory, SlyBindingsValuesProvider slyBindingsValuesProvider,
+                 Function<ResourceResolver, JsEnvironment> environmentFactory, String[] patterns, int threads) {
+        this.resourceResolverFactory = resourceResolverFactory;
+        this.slyBindingsValuesProvider = slyBindingsValuesProvider;
+        this.environmentFactory = environmentFactory;
+        this.patterns = patterns == null ? new String[0] : patterns.clone();
+        this.threads = threads < 1 ? Runtime.getRuntime().availableProcessors() : threads;
+        this.executor = Executors.newFixedThreadPool(this.threads, new WarmUpThreadFactory());
+    }
+
+    void start() {
+        executor.execute(this::run);
+    }
+
+    void stop() {
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                LOGGER.warn("The warm-up of the JavaScript Use-API scripts did not stop in time.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        final long start = System.nanoTime();
+        ResourceResolver resolver;
+        try {
+            resolver = resourceResolverFactory.getServiceResourceResolver(null);
+        } catch (LoginException e) {
+            LOGGER.warn("Skipping the warm-up of the JavaScript Use-API scripts, since no service user is mapped to this bundle.", e);
+            executor.shutdown();
+            return;
+        }
+        try {
+            List<ScriptSource> scripts = collectScripts(resolver);
+            LOGGER.info("Warming up the JavaScript Use-API: precompiling {} scripts on {} threads.", scripts.size(), threads);
+            AtomicInteger compiled = new AtomicInteger();
+            AtomicInteger failed = new AtomicInteger();
+            List<CompletableFuture<Void>> futures = new ArrayList<>(scripts.size());
+            for (ScriptSource script : scripts) {
+                futures.add(CompletableFuture.runAsync(() -> precompile(resolver, script, scripts.size(), compiled, failed), executor));
+            }
+            loadFactories(resolver);
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).whenComplete((result, error) -> {
+                LOGGER.info("Warmed up the JavaScript Use-API in {} ms: {} scripts precompiled, {} failed.",
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), compiled.get(), failed.get());
+                executor.shutdown();
+            });
+        } catch (RejectedExecutionException e) {
+            LOGGER.debug("The warm-up of the JavaScript Use-API scripts was stopped.");
+        } catch (RuntimeException e) {
+            LOGGER.error("The warm-up of the JavaScript Use-API scripts failed.", e);
+            // lets the compilations which were already submitted finish
+            executor.shutdown();
+        } finally {
+            resolver.close();
+        }
+    }
+
+    private void loadFactories(ResourceResolver resolver) {
+        long start = System.nanoTime();
+        JsEnvironment environment = environmentFactory.apply(resolver);
+        if (environment == null) {
+            LOGGER.warn("Cannot load the JavaScript Use-API factories, since no JavaScript engine is available.");
+            return;
+        }
+        environment.initialize();
+        try {
+            slyBindingsValuesProvider.initialise(resolver, environment, new LazyBindings());
+            LOGGER.info("Loaded the JavaScript Use-API factories in {} ms.", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (RuntimeException e) {
+            LOGGER.error("Unable to load the JavaScript Use-API factories; they will be loaded by the first request.", e);
+        } finally {
+            environment.cleanup();
+        }
+    }
+
+    private void precompile(ResourceResolver resolver, ScriptSource script, int total, AtomicInteger compiled, AtomicInteger failed) {
+        long start = System.nanoTime();
+        try {
+            // compiling doesn't resolve any dependency, so the environment never uses the resolver, which may be closed by now
+            JsEnvironment environment = environmentFactory.apply(resolver);
+            if (environment == null || !environment.precompile(
+                    new ScriptNameAwareReader(new StringReader(script.content), script.path), script.lastModified)) {
+                failed.incrementAndGet();
+                LOGGER.warn("Cannot precompile script {}, since the JavaScript engine does not support compilation.", script.path);
+                return;
+            }
+            int done = compiled.incrementAndGet();
+            LOGGER.debug("Precompiled script {} in {} ms.", script.path, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            int step = Math.max(total / 10, 1);
+            if (done % step == 0) {
+                LOGGER.info("Warming up the JavaScript Use-API: {}/{} scripts precompiled.", done, total);
+            }
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            LOGGER.warn("Unable to precompile script {}.", script.path, e);
+        }
+    }
+
+    private List<ScriptSource> collectScripts(ResourceResolver resolver) {
+        Map<String, Resource> resources = new LinkedHashMap<>();
+        for (String pattern : patterns) {
+            int wildcard = indexOfWildcard(pattern);
+            if (wildcard == -1) {
+                Resource resource = resolver.getResource(pattern);
+                if (resource != null) {
+                    resources.put(resource.getPath(), resource);
+                } else {
+                    LOGGER.warn("Cannot find the script {} configured for the warm-up.", pattern);
+                }
+            } else {
+                Resource root = resolver.getResource(pattern.substring(0, Math.max(pattern.lastIndexOf('/', wildcard), 1)));
+                if (root != null) {
+                    collectMatches(root, toRegex(pattern), resources);
+                }
+            }
+        }
+        List<ScriptSource> scripts = new ArrayList<>(resources.size());
+        for (Resource resource : resources.values()) {
+            if (!Utils.isJsScript(resource.getPath())) {
+                continue;
+            }
+            try {
+                ScriptNameAwareReader reader = Utils.readScript(resource);
+                try {
+                    scripts.add(new ScriptSource(resource.getPath(), resource.getResourceMetadata().getModificationTime(),
+                            IOUtils.toString(reader)));
+                } finally {
+                    IOUtils.closeQuietly(reader);
+                }
+            } catch (Exception e) {
+                LOGGER.warn("Unable to read script {} for the warm-up.", resource.getPath(), e);
+            }
+        }
+        return scripts;
+    }
+
+    private static void collectMatches(Resource resource, Pattern pattern, Map<String, Resource> matches) {
+        if (pattern.matcher(resource.getPath()).matches()) {
+            matches.put(resource.getPath(), resource);
+        }
+        Iterator<Resource> children = resource.listChildren();
+        while (children.hasNext()) {
+            collectMatches(children.next(), pattern, matches);
+        }
+    }
+
+    private static int indexOfWildcard(String pattern) {
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '*' || c == '?') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static Pattern toRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        int i = 0;
+        while (i < glob.length()) {
+            char c = glob.charAt(i);
+            if (c == '*' && i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                regex.append(".*");
+                i += 2;
+                continue;
+            }
+            if (c == '*') {
+                regex.append("[^/]*");
+            } else if (c == '?') {
+                regex.append("[^/]");
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+            i++;
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    private static final class ScriptSource {
+
+        private final String path;
+        private final long lastModified;
+        private final String content;
+
+        ScriptSource(String path, long lastModified, String content) {
+            this.path = path;
+            this.lastModified = lastModified;
+            this.content = content;
+        }
+    }
+
+    private static final class WarmUpThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "sling-js-use-warm-up-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -16,12 +16,21 @@
  ******************************************************************************/
 package org.apache.sling.scripting.sightly.js.impl;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+
 import javax.script.Bindings;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.scripting.LazyBindings;
 import org.apache.sling.api.scripting.SlingBindings;
 import org.apache.sling.api.scripting.SlingScriptHelper;
+import org.apache.sling.scripting.core.ScriptNameAwareReader;
+import org.apache.sling.scripting.sightly.SightlyException;
 
 /**
  * Utilities for script evaluation
@@ -39,4 +48,26 @@ public class Utils {
         String extension = StringUtils.substringAfterLast(identifier, ".");
         return JS_EXTENSION.equalsIgnoreCase(extension);
     }
+
+    /**
+     * Reads the content of a script resource.
+     *
+     * @param scriptResource the script resource
+     * @return a reader for the script's content
+     * @throws SightlyException if the script's content cannot be read
+     */
+    public static ScriptNameAwareReader readScript(Resource scriptResource) {
+        InputStream scriptStream = scriptResource.adaptTo(InputStream.class);
+        if (scriptStream == null) {
+            throw new SightlyException(String.format("Unable to read script %s.", scriptResource.getPath()));
+        }
+        try {
+            return new ScriptNameAwareReader(new StringReader(IOUtils.toString(scriptStream, StandardCharsets.UTF_8)),
+                    scriptResource.getPath());
+        } catch (IOException e) {
+            throw new SightlyException(String.format("Unable to read script %s.", scriptResource.getPath()), e);
+        } finally {
+            IOUtils.closeQuietly(scriptStream);
+        }
+    }
 }
@@ -18,17 +18,22 @@
  ******************************************************************************/
 package org.apache.sling.scripting.sightly.js.impl.async;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /**
- * Simple container for asynchronously provided values
+ * Simple container for asynchronously provided values. A container is either completed with a value or failed with an error; the
+ * first completion wins and is atomic, so a container can be safely published across threads.
+ * <p>
+ * The container's state is a single field: {@code null} while the container is pending without listeners, a stack of listeners while
+ * it is pending with listeners, or the outcome once it is done. Completing a container without listeners therefore allocates only
+ * the outcome, and listeners are released as soon as they have been notified.</p>
  */
 public class AsyncContainer {
 
-    private Object value;
-    private boolean completed;
-    private List<UnaryCallback> callbacks = new ArrayList<UnaryCallback>();
+    private static final AtomicReferenceFieldUpdater<AsyncContainer, Object> STATE =
+            AtomicReferenceFieldUpdater.newUpdater(AsyncContainer.class, Object.class, "state");
+
+    private volatile Object state;
 
     /**
      * Add a listener that will receive the value in this container when it will
@@ -37,19 +42,35 @@ public class AsyncContainer {
      * @param unaryCallback the callback that will receive the result
      */
     public void addListener(UnaryCallback unaryCallback) {
-        callbacks.add(unaryCallback);
-        if (completed) {
-            notifyListener(unaryCallback);
+        addListener(unaryCallback, null);
+    }
+
+    /**
+     * Add listeners for the value or the error of this container. If the container is already completed or failed, the matching
+     * callback is called immediately.
+     * @param onSuccess the callback that will receive the result
+     * @param onFailure the callback that will receive the error; can be {@code null}
+     */
+    public void addListener(UnaryCallback onSuccess, UnaryCallback onFailure) {
+        while (true) {
+            Object current = state;
+            if (current instanceof Outcome) {
+                ((Outcome) current).notify(onSuccess, onFailure);
+                return;
+            }
+            if (STATE.compareAndSet(this, current, new Listener(onSuccess, onFailure, (Listener) current))) {
+                return;
+            }
         }
     }
 
     /**
      * Get the result of this holder
-     * @return the holder result
-     * @throws java.util.NoSuchElementException if the result has not yet been set
+     * @return the holder result or {@code null} if the container was not completed with a value
      */
     public Object getResult() {
-        return value;
+        Object current = state;
+        return current instanceof Outcome ? ((Outcome) current).value : null;
     }
 
     /**
@@ -57,7 +78,34 @@ public class AsyncContainer {
      * @return the completion status
      */
     public boolean isCompleted() {
-        return completed;
+        Object current = state;
+        return current instanceof Outcome && !((Outcome) current).failed;
+    }
+
+    /**
+     * Check whether the container was failed with an error
+     * @return the failure status
+     */
+    public boolean isFailed() {
+        Object current = state;
+        return current instanceof Outcome && ((Outcome) current).failed;
+    }
+
+    /**
+     * Check whether the container was either completed or failed
+     * @return {@code true} if the container is done
+     */
+    public boolean isDone() {
+        return state instanceof Outcome;
+    }
+
+    /**
+     * Get the error this container was failed with
+     * @return the error or {@code null} if the container was not failed
+     */
+    public Throwable getError() {
+        Object current = state;
+        return current instanceof Outcome ? ((Outcome) current).error : null;
     }
 
     /**
@@ -66,14 +114,18 @@ public class AsyncContainer {
      * @throws java.lang.IllegalStateException if the container has been previously filled
      */
     public void complete(Object value) {
-        if (completed) {
+        if (!settle(new Outcome(value, null, false))) {
             throw new IllegalStateException("Value was already completed");
         }
-        completed = true;
-        this.value = value;
-        for (UnaryCallback callback : callbacks) {
-            notifyListener(callback);
-        }
+    }
+
+    /**
+     * Fail this async container with an error. Calls for a container which is already completed or failed are ignored, so that an
+     * error can be propagated along several paths without checks.
+     * @param error the error
+     */
+    public void fail(Throwable error) {
+        settle(new Outcome(null, error, true));
     }
 
     /**
@@ -81,15 +133,98 @@ public class AsyncContainer {
      * @return the completion callback
      */
     public UnaryCallback createCompletionCallback() {
-        return new UnaryCallback() {
-            @Override
-            public void invoke(Object arg) {
-                complete(arg);
+        return this::complete;
+    }
+
+    /**
+     * Create a callback that will fail this container
+     * @return the failure callback
+     */
+    public UnaryCallback createFailureCallback() {
+        return arg -> fail(arg instanceof Throwable ? (Throwable) arg : new IllegalStateException(String.valueOf(arg)));
+    }
+
+    private boolean settle(Outcome outcome) {
+        while (true) {
+            Object current = state;
+            if (current instanceof Outcome) {
+                return false;
+            }
+            if (STATE.compareAndSet(this, current, outcome)) {
+                if (current != null) {
+                    notifyListeners(reverse((Listener) current), outcome);
+                }
+                return true;
             }
-        };
+        }
+    }
+
+    private static Listener reverse(Listener head) {
+        if (head.next == null) {
+            return head;
+        }
+        Listener reversed = null;
+        for (Listener listener = head; listener != null; listener = listener.next) {
+            reversed = new Listener(listener.onSuccess, listener.onFailure, reversed);
+        }
+        return reversed;
     }
 
-    private void notifyListener(UnaryCallback unaryCallback) {
-        unaryCallback.invoke(value);
+    /**
+     * Notifies all the listeners, even if some of them throw. The first exception is rethrown once all the listeners were notified,
+     * with the following ones attached as suppressed exceptions.
+     */
+    private static void notifyListeners(Listener first, Outcome outcome) {
+        RuntimeException error = null;
+        for (Listener listener = first; listener != null; listener = listener.next) {
+            try {
+                outcome.notify(listener.onSuccess, listener.onFailure);
+            } catch (RuntimeException e) {
+                if (error == null) {
+                    error = e;
+                } else if (e != error) {
+                    error.addSuppressed(e);
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private static final class Listener {
+
+        private final UnaryCallback onSuccess;
+        private final UnaryCallback onFailure;
+        private final Listener next;
+
+        Listener(UnaryCallback onSuccess, UnaryCallback onFailure, Listener next) {
+            this.onSuccess = onSuccess;
+            this.onFailure = onFailure;
+            this.next = next;
+        }
+    }
+
+    private static final class Outcome {
+
+        private final Object value;
+        private final Throwable error;
+        private final boolean failed;
+
+        Outcome(Object value, Throwable error, boolean failed) {
+            this.value = value;
+            this.error = error;
+            this.failed = failed;
+        }
+
+        void notify(UnaryCallback onSuccess, UnaryCallback onFailure) {
+            if (failed) {
+                if (onFailure != null) {
+                    onFailure.invoke(error);
+                }
+            } else {
+                onSuccess.invoke(value);
+            }
+        }
     }
 }
@@ -25,30 +25,84 @@ import org.mozilla.javascript.Function;
 import org.mozilla.javascript.Scriptable;
 import org.mozilla.javascript.ScriptableObject;
 import org.apache.sling.scripting.sightly.js.impl.loop.EventLoopInterop;
+import org.apache.sling.scripting.sightly.js.impl.rhino.ContextSession;
 
 /**
- *
+ * Extracts the values of asynchronous objects: {@link AsyncContainer}s, {@link JsPromise}s and JS promises. Objects which are already
+ * settled are unwrapped synchronously; only pending JS promises are subscribed to through the event loop.
  */
 public class AsyncExtractor {
 
     public static final String THEN_METHOD = "then";
 
+    private static final String INSPECT_METHOD = "inspect";
+    private static final String FULFILLED = "fulfilled";
+    private static final String REJECTED = "rejected";
+
     public void extract(Object jsObj, UnaryCallback unaryCallback) {
-        if (!isPromise(jsObj)) {
+        if (jsObj instanceof AsyncContainer) {
+            decodeAsyncContainer((AsyncContainer) jsObj, unaryCallback);
+        } else if (jsObj instanceof JsPromise) {
+            decodeNativePromise((JsPromise) jsObj, unaryCallback);
+        } else if (jsObj instanceof ScriptableObject && ScriptableObject.hasProperty((Scriptable) jsObj, THEN_METHOD)) {
+            Scriptable promise = (Scriptable) jsObj;
+            if (!decodeSettledJSPromise(promise, unaryCallback)) {
+                decodeJSPromise(promise, unaryCallback);
+            }
+        } else {
             unaryCallback.invoke(jsObj);
         }
-        if (jsObj instanceof AsyncContainer) {
-            ((AsyncContainer) jsObj).addListener(unaryCallback);
+    }
+
+    private void decodeAsyncContainer(AsyncContainer container, UnaryCallback callback) {
+        if (container.isCompleted()) {
+            callback.invoke(container.getResult());
+        } else if (container.isFailed()) {
+            throw toSightlyException(container.getError());
+        } else {
+            container.addListener(callback, error -> {
+                throw toSightlyException((Throwable) error);
+            });
         }
-        if (jsObj instanceof ScriptableObject) {
-            ScriptableObject scriptableObject = (ScriptableObject) jsObj;
-            decodeJSPromise(scriptableObject, unaryCallback);
+    }
+
+    /**
+     * Unwraps the value of a JS promise which is already settled, as reported by its {@code inspect} method (e.g. Q promises),
+     * without going through the event loop.
+     *
+     * @return {@code true} if the promise was settled and the callback received its value, {@code false} otherwise
+     */
+    private boolean decodeSettledJSPromise(Scriptable promise, UnaryCallback callback) {
+        if (!(ScriptableObject.getProperty(promise, INSPECT_METHOD) instanceof Function)) {
+            return false;
         }
+        String state;
+        Scriptable inspection;
+        try {
+            ContextSession.enter();
+            Object result = ScriptableObject.callMethod(promise, INSPECT_METHOD, new Object[0]);
+            if (!(result instanceof Scriptable)) {
+                return false;
+            }
+            inspection = (Scriptable) result;
+            state = String.valueOf(ScriptableObject.getProperty(inspection, "state"));
+        } finally {
+            ContextSession.exit();
+        }
+        if (FULFILLED.equals(state)) {
+            callback.invoke(ScriptableObject.getProperty(inspection, "value"));
+            return true;
+        }
+        if (REJECTED.equals(state)) {
+            throw new SightlyException("Promise has completed with failure: " +
+                    Context.toString(ScriptableObject.getProperty(inspection, "reason")));
+        }
+        return false;
     }
 
     private void decodeJSPromise(final Scriptable promise, final UnaryCallback callback) {
         try {
-            Context context = Context.enter();
+            Context context = ContextSession.enter();
             final AsyncContainer errorContainer = new AsyncContainer();
             final Function errorHandler = createErrorHandler(errorContainer);
             final Function successHandler = convertCallback(callback);
@@ -59,20 +113,39 @@ public class AsyncExtractor {
                             new Object[] {successHandler, errorHandler});
                 }
             });
-            if (errorContainer.isCompleted()) {
-                throw new SightlyException("Promise has completed with failure: " + Context.toString(errorContainer.getResult()));
+            if (errorContainer.isFailed()) {
+                throw new SightlyException("Promise has completed with failure: " + errorContainer.getError().getMessage());
             }
         } finally {
-            Context.exit();
+            ContextSession.exit();
         }
     }
 
+    private void decodeNativePromise(final JsPromise promise, final UnaryCallback callback) {
+        if (promise.isFulfilled()) {
+            callback.invoke(promise.getValue());
+        } else if (promise.isRejected()) {
+            throw new SightlyException("Promise has completed with failure: " + Context.toString(promise.getValue()));
+        } else {
+            promise.addListener(callback, reason -> {
+                throw new SightlyException("Promise has completed with failure: " + Context.toString(reason));
+            });
+        }
+    }
+
+    private static SightlyException toSightlyException(Throwable error) {
+        if (error instanceof SightlyException) {
+            return (SightlyException) error;
+        }
+        return new SightlyException("Asynchronous value has completed with failure.", error);
+    }
+
     private Function createErrorHandler(AsyncContainer asyncContainer) {
-        return convertCallback(asyncContainer.createCompletionCallback());
+        return convertCallback(reason -> asyncContainer.fail(new IllegalStateException(Context.toString(reason))));
     }
 
     public boolean isPromise(Object jsObj) {
-        if (jsObj instanceof AsyncContainer) {
+        if (jsObj instanceof AsyncContainer || jsObj instanceof JsPromise) {
             return true;
         }
         if (jsObj instanceof ScriptableObject) {
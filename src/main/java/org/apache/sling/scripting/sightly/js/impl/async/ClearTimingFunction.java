@@ -0,0 +1,51 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ ******************************************************************************/
+package org.apache.sling.scripting.sightly.js.impl.async;
+
+import org.apache.sling.scripting.sightly.js.impl.loop.Task;
+import org.mozilla.javascript.BaseFunction;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.Wrapper;
+
+/**
+ * Implementation of {@code clearTimeout} and {@code clearImmediate}: deactivates the task returned by a {@link TimingFunction}, so
+ * that it never runs. Calls with anything other than such a task are ignored.
+ */
+public final class ClearTimingFunction extends BaseFunction {
+
+    public static final ClearTimingFunction INSTANCE = new ClearTimingFunction();
+
+    private ClearTimingFunction() {
+    }
+
+    @Override
+    public Object call(Context cx, Scriptable scope, Scriptable thisObj, Object[] args) {
+        if (args.length > 0) {
+            Object handle = args[0];
+            if (handle instanceof Wrapper) {
+                handle = ((Wrapper) handle).unwrap();
+            }
+            if (handle instanceof Task) {
+                ((Task) handle).deactivate();
+            }
+        }
+        return Context.getUndefinedValue();
+    }
+}
@@ -0,0 +1,328 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ ******************************************************************************/
+package org.apache.sling.scripting.sightly.js.impl.async;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.sling.scripting.sightly.js.impl.loop.EventLoopInterop;
+import org.apache.sling.scripting.sightly.js.impl.rhino.JsUtils;
+import org.mozilla.javascript.BaseFunction;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Function;
+import org.mozilla.javascript.JavaScriptException;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+/**
+ * Java implementation of a JavaScript promise, exposing the {@code then}, {@code fail} and {@code catch} methods. The reactions
+ * registered from JavaScript through {@code then} are run asynchronously, on the event loop, while the listeners registered from Java
+ * through {@link #addListener(UnaryCallback, UnaryCallback)} are notified synchronously, as soon as the promise is settled.
+ */
+public class JsPromise extends ScriptableObject {
+
+    private static final String THEN = "then";
+    private static final String FAIL = "fail";
+    private static final String CATCH = "catch";
+
+    private enum State {
+        PENDING, FULFILLED, REJECTED
+    }
+
+    private State state = State.PENDING;
+    private boolean resolving;
+    private Object value;
+    private List<Listener> listeners;
+
+    /**
+     * Creates a promise resolved with {@code value}. If {@code value} is itself a promise, the returned promise will follow its state.
+     *
+     * @param value the value
+     * @return the promise
+     */
+    public static JsPromise resolved(Object value) {
+        if (value instanceof JsPromise) {
+            return (JsPromise) value;
+        }
+        JsPromise promise = new JsPromise();
+        promise.resolve(value);
+        return promise;
+    }
+
+    /**
+     * Creates a promise rejected with {@code reason}.
+     *
+     * @param reason the rejection reason
+     * @return the promise
+     */
+    public static JsPromise rejected(Object reason) {
+        JsPromise promise = new JsPromise();
+        promise.reject(reason);
+        return promise;
+    }
+
+    /**
+     * Resolves this promise. If the value is a promise, an {@link AsyncContainer} or a thenable object, this promise will follow its
+     * state; otherwise this promise is fulfilled with the value.
+     *
+     * @param value the resolution value
+     */
+    public void resolve(Object value) {
+        if (resolving || state != State.PENDING) {
+            return;
+        }
+        if (value == this) {
+            reject(new IllegalStateException("A promise cannot be resolved with itself."));
+            return;
+        }
+        if (value instanceof JsPromise) {
+            resolving = true;
+            ((JsPromise) value).addListener(this::fulfil, this::doReject);
+        } else if (value instanceof AsyncContainer) {
+            resolving = true;
+            ((AsyncContainer) value).addListener(this::fulfil, this::doReject);
+        } else if (value instanceof Scriptable && ScriptableObject.getProperty((Scriptable) value, THEN) instanceof Function) {
+            resolving = true;
+            final Scriptable thenable = (Scriptable) value;
+            final Function then = (Function) ScriptableObject.getProperty(thenable, THEN);
+            schedule(() -> JsUtils.callFn(then, null, thenable, thenable, new Object[] {
+                    toFunction(this::fulfil), toFunction(this::doReject)
+            }));
+        } else {
+            fulfil(value);
+        }
+    }
+
+    /**
+     * Rejects this promise.
+     *
+     * @param reason the rejection reason
+     */
+    public void reject(Object reason) {
+        if (resolving) {
+            return;
+        }
+        doReject(reason);
+    }
+
+    /**
+     * Registers listeners that are notified synchronously when this promise is settled. If the promise is already settled the
+     * matching listener is called immediately.
+     *
+     * @param onFulfilled the listener for the fulfillment value
+     * @param onRejected  the listener for the rejection reason
+     */
+    public void addListener(UnaryCallback onFulfilled, UnaryCallback onRejected) {
+        Listener listener = new Listener(onFulfilled, onRejected);
+        if (state == State.PENDING) {
+            if (listeners == null) {
+                listeners = new ArrayList<>(2);
+            }
+            listeners.add(listener);
+        } else {
+            listener.notify(state, value);
+        }
+    }
+
+    /**
+     * Registers the reactions of a JavaScript {@code then} call.
+     *
+     * @param onFulfilled the fulfillment reaction; can be {@code null}
+     * @param onRejected  the rejection reaction; can be {@code null}
+     * @return the promise of the reaction's result
+     */
+    public JsPromise then(final Function onFulfilled, final Function onRejected) {
+        final JsPromise next = new JsPromise();
+        addListener(
+                result -> schedule(() -> react(next, onFulfilled, result, false)),
+                reason -> schedule(() -> react(next, onRejected, reason, true))
+        );
+        return next;
+    }
+
+    public boolean isPending() {
+        return state == State.PENDING;
+    }
+
+    public boolean isFulfilled() {
+        return state == State.FULFILLED;
+    }
+
+    public boolean isRejected() {
+        return state == State.REJECTED;
+    }
+
+    /**
+     * Returns the fulfillment value or the rejection reason of this promise.
+     *
+     * @return the value, or {@code null} if the promise is still pending
+     */
+    public Object getValue() {
+        return value;
+    }
+
+    @Override
+    public String getClassName() {
+        return "Promise";
+    }
+
+    @Override
+    public Object get(String name, Scriptable start) {
+        switch (name) {
+            case THEN:
+                return ThenFunction.INSTANCE;
+            case FAIL:
+            case CATCH:
+                return FailFunction.INSTANCE;
+            default:
+                return super.get(name, start);
+        }
+    }
+
+    @Override
+    public boolean has(String name, Scriptable start) {
+        return THEN.equals(name) || FAIL.equals(name) || CATCH.equals(name) || super.has(name, start);
+    }
+
+    private void fulfil(Object result) {
+        settle(State.FULFILLED, result);
+    }
+
+    private void doReject(Object reason) {
+        settle(State.REJECTED, reason);
+    }
+
+    private void settle(State newState, Object newValue) {
+        if (state != State.PENDING) {
+            return;
+        }
+        state = newState;
+        value = newValue;
+        List<Listener> toNotify = listeners;
+        listeners = null;
+        if (toNotify != null) {
+            for (Listener listener : toNotify) {
+                listener.notify(state, value);
+            }
+        }
+    }
+
+    private static void react(JsPromise next, Function reaction, Object arg, boolean rejection) {
+        if (reaction == null) {
+            if (rejection) {
+                next.reject(arg);
+            } else {
+                next.resolve(arg);
+            }
+            return;
+        }
+        Object result;
+        try {
+            // like the reactions of native promises, the reaction is called with the global object as this
+            Scriptable global = ScriptableObject.getTopLevelScope(reaction);
+            result = JsUtils.callFn(reaction, null, global, global, new Object[] {arg});
+        } catch (JavaScriptException e) {
+            next.reject(e.getValue());
+            return;
+        } catch (RuntimeException e) {
+            next.reject(e);
+            return;
+        }
+        next.resolve(result);
+    }
+
+    private static void schedule(Runnable runnable) {
+        Context context = Context.getCurrentContext();
+        if (context == null) {
+            runnable.run();
+        } else {
+            EventLoopInterop.scheduleMicrotask(context, runnable);
+        }
+    }
+
+    private static Function toFunction(final UnaryCallback callback) {
+        return new BaseFunction() {
+            @Override
+            public Object call(Context cx, Scriptable scope, Scriptable thisObj, Object[] args) {
+                callback.invoke(args.length == 0 ? Context.getUndefinedValue() : args[0]);
+                return Context.getUndefinedValue();
+            }
+        };
+    }
+
+    private static Function functionArg(Object[] args, int index) {
+        if (args.length > index && args[index] instanceof Function) {
+            return (Function) args[index];
+        }
+        return null;
+    }
+
+    private static JsPromise thisPromise(Scriptable thisObj) {
+        if (!(thisObj instanceof JsPromise)) {
+            throw new IllegalArgumentException("Promise method called on an object which is not a promise.");
+        }
+        return (JsPromise) thisObj;
+    }
+
+    private static final class Listener {
+
+        private final UnaryCallback onFulfilled;
+        private final UnaryCallback onRejected;
+
+        Listener(UnaryCallback onFulfilled, UnaryCallback onRejected) {
+            this.onFulfilled = onFulfilled;
+            this.onRejected = onRejected;
+        }
+
+        void notify(State state, Object value) {
+            UnaryCallback callback = state == State.FULFILLED ? onFulfilled : onRejected;
+            if (callback != null) {
+                callback.invoke(value);
+            }
+        }
+    }
+
+    private static final class ThenFunction extends BaseFunction {
+
+        private static final ThenFunction INSTANCE = new ThenFunction();
+
+        private ThenFunction() {
+            sealObject();
+        }
+
+        @Override
+        public Object call(Context cx, Scriptable scope, Scriptable thisObj, Object[] args) {
+            return thisPromise(thisObj).then(functionArg(args, 0), functionArg(args, 1));
+        }
+    }
+
+    private static final class FailFunction extends BaseFunction {
+
+        private static final FailFunction INSTANCE = new FailFunction();
+
+        private FailFunction() {
+            sealObject();
+        }
+
+        @Override
+        public Object call(Context cx, Scriptable scope, Scriptable thisObj, Object[] args) {
+            return thisPromise(thisObj).then(null, functionArg(args, 0));
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ ******************************************************************************/
+package org.apache.sling.scripting.sightly.js.impl.async;
+
+import org.mozilla.javascript.BaseFunction;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+
+/**
+ * Native replacement for the subset of the Q library used by the JS Use-API factories: {@code Q(x)}, {@code Q.resolve(x)} and
+ * {@code Q.reject(err)}, all of them returning {@link JsPromise}s. The library is shared by all the scripts, so it is sealed, like
+ * its functions.
+ */
+public final class PromiseLibrary extends BaseFunction {
+
+    public static final PromiseLibrary INSTANCE = new PromiseLibrary();
+
+    private static final String RESOLVE = "resolve";
+    private static final String REJECT = "reject";
+
+    private PromiseLibrary() {
+        defineProperty(RESOLVE, new ResolveFunction(), READONLY | PERMANENT);
+        defineProperty(REJECT, new RejectFunction(), READONLY | PERMANENT);
+        sealObject();
+    }
+
+    @Override
+    public Object call(Context cx, Scriptable scope, Scriptable thisObj, Object[] args) {
+        return JsPromise.resolved(firstArg(args));
+    }
+
+    @Override
+    public String getClassName() {
+        return "Q";
+    }
+
+    private static Object firstArg(Object[] args) {
+        return args.length == 0 ? Context.getUndefinedValue() : args[0];
+    }
+
+    private static final class ResolveFunction extends BaseFunction {
+
+        ResolveFunction() {
+            sealObject();
+        }
+
+        @Override
+        public Object call(Context cx, Scriptable scope, Scriptable thisObj, Object[] args) {
+            return JsPromise.resolved(firstArg(args));
+        }
+    }
+
+    private static final class RejectFunction extends BaseFunction {
+
+        RejectFunction() {
+            sealObject();
+        }
+
+        @Override
+        public Object call(Context cx, Scriptable scope, Scriptable thisObj, Object[] args) {
+            return JsPromise.rejected(firstArg(args));
+        }
+    }
+}
@@ -35,7 +35,9 @@ public final class TimingBindingsValuesProvider implements BindingsValuesProvide
 
     @Override
     public void addBindings(Bindings bindings) {
-        bindings.put(Variables.SET_TIMEOUT, TimingFunction.INSTANCE);
-        bindings.put(Variables.SET_IMMEDIATE, TimingFunction.INSTANCE);
+        bindings.put(Variables.SET_TIMEOUT, TimingFunction.TIMEOUT);
+        bindings.put(Variables.SET_IMMEDIATE, TimingFunction.IMMEDIATE);
+        bindings.put(Variables.CLEAR_TIMEOUT, ClearTimingFunction.INSTANCE);
+        bindings.put(Variables.CLEAR_IMMEDIATE, ClearTimingFunction.INSTANCE);
     }
 }
@@ -18,6 +18,8 @@
  ******************************************************************************/
 package org.apache.sling.scripting.sightly.js.impl.async;
 
+import java.util.Arrays;
+
 import org.mozilla.javascript.BaseFunction;
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.Function;
@@ -26,13 +28,19 @@ import org.apache.sling.scripting.sightly.js.impl.loop.EventLoopInterop;
 import org.apache.sling.scripting.sightly.js.impl.rhino.JsUtils;
 
 /**
- * Timing function for JS scripts that use async constructs
+ * Timing functions for JS scripts that use async constructs. {@code setImmediate} queues its callback as a macrotask, while
+ * {@code setTimeout} queues it as a timer which runs after the requested delay has elapsed on the event loop's virtual clock. Any
+ * additional arguments are passed to the callback. The returned task can be cancelled through {@link ClearTimingFunction}.
  */
 public final class TimingFunction extends BaseFunction {
 
-    public static final TimingFunction INSTANCE = new TimingFunction();
+    public static final TimingFunction TIMEOUT = new TimingFunction(true);
+    public static final TimingFunction IMMEDIATE = new TimingFunction(false);
+
+    private final boolean delayed;
 
-    private TimingFunction() {
+    private TimingFunction(boolean delayed) {
+        this.delayed = delayed;
     }
 
     @Override
@@ -44,11 +52,28 @@ public final class TimingFunction extends BaseFunction {
             throw new IllegalArgumentException("Timing function must receive a function as the first argument");
         }
         final Function function = (Function) args[0];
-        return EventLoopInterop.schedule(cx, new Runnable() {
+        int firstArgument = delayed ? 2 : 1;
+        final Object[] arguments = args.length > firstArgument ? Arrays.copyOfRange(args, firstArgument, args.length) : new Object[0];
+        Runnable runnable = new Runnable() {
             @Override
             public void run() {
-                JsUtils.callFn(function, cx, scope, null, new Object[0]);
+                JsUtils.callFn(function, cx, scope, null, arguments);
             }
-        });
+        };
+        if (delayed) {
+            return EventLoopInterop.scheduleTimer(cx, runnable, toDelay(args));
+        }
+        return EventLoopInterop.schedule(cx, runnable);
+    }
+
+    private static long toDelay(Object[] args) {
+        if (args.length < 2) {
+            return 0;
+        }
+        double delay = Context.toNumber(args[1]);
+        if (Double.isNaN(delay) || delay < 0) {
+            return 0;
+        }
+        return (long) Math.min(delay, Integer.MAX_VALUE);
     }
 }
@@ -0,0 +1,173 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ ******************************************************************************/
+package org.apache.sling.scripting.sightly.js.impl.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persistent cache of the class files generated by Rhino for compiled JS scripts, stored in a directory (usually the bundle's data
+ * area) so that the scripts don't have to be recompiled after a restart. Entries are identified by the script's path and are only
+ * returned if the content hash recorded when the script was compiled matches the expected one.
+ * <p>
+ * The class files are handled in the format used by Rhino's {@code ClassCompiler}: an array of alternating class names and class
+ * bytes. The cache is best-effort: I/O errors are logged and reported as cache misses.</p>
+ */
+public class ClassFileCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ClassFileCache.class);
+    private static final int FORMAT_VERSION = 1;
+    private static final String EXTENSION = ".classes";
+
+    private final File directory;
+
+    /**
+     * @param directory the directory holding the cache entries; it is created if it does not exist
+     */
+    public ClassFileCache(@NotNull File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Returns the class files stored for the script at {@code path}.
+     *
+     * @param path        the script's path
+     * @param contentHash the expected content hash
+     * @return the class files or {@code null} if no valid entry exists
+     */
+    @Nullable
+    public Object[] load(@NotNull String path, @NotNull String contentHash) {
+        File file = entryFile(path);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FORMAT_VERSION || !path.equals(in.readUTF()) || !contentHash.equals(in.readUTF())) {
+                return null;
+            }
+            int count = in.readInt();
+            Object[] classFiles = new Object[count * 2];
+            for (int i = 0; i < count; i++) {
+                classFiles[2 * i] = in.readUTF();
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                classFiles[2 * i + 1] = bytes;
+            }
+            return classFiles;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Unable to read the cached class files of script {}.", path, e);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the class files of the script at {@code path}, replacing any previous entry.
+     *
+     * @param path        the script's path
+     * @param contentHash the script's content hash
+     * @param classFiles  the class files
+     */
+    public void store(@NotNull String path, @NotNull String contentHash, @NotNull Object[] classFiles) {
+        File target = entryFile(path);
+        File temp = null;
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+                throw new IOException("Cannot create directory " + directory);
+            }
+            temp = File.createTempFile("entry", ".tmp", directory);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                out.writeInt(FORMAT_VERSION);
+                out.writeUTF(path);
+                out.writeUTF(contentHash);
+                out.writeInt(classFiles.length / 2);
+                for (int i = 0; i < classFiles.length; i += 2) {
+                    byte[] bytes = (byte[]) classFiles[i + 1];
+                    out.writeUTF((String) classFiles[i]);
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+            }
+            try {
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            temp = null;
+        } catch (IOException e) {
+            LOGGER.warn("Unable to cache the class files of script {}.", path, e);
+        } finally {
+            if (temp != null && !temp.delete()) {
+                temp.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * Removes the entry of the script at {@code path}, e.g. because its class files could not be loaded.
+     *
+     * @param path the script's path
+     */
+    public void remove(@NotNull String path) {
+        File file = entryFile(path);
+        if (file.exists() && !file.delete()) {
+            LOGGER.warn("Unable to remove the cached class files of script {}.", path);
+        }
+    }
+
+    /**
+     * Computes the SHA-256 hash of {@code content}.
+     *
+     * @param content the content
+     * @return the hexadecimal hash
+     */
+    @NotNull
+    public static String hash(@NotNull String content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported by this JVM.", e);
+        }
+    }
+
+    private File entryFile(String path) {
+        return new File(directory, hash(path) + EXTENSION);
+    }
+}
@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ ******************************************************************************/
+package org.apache.sling.scripting.sightly.js.impl.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.script.CompiledScript;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Bounded, thread-safe cache of compiled JS scripts. Entries are identified by the script's path and are only returned if the
+ * last modification time of the script resource matches the one recorded when the script was compiled.
+ */
+public class CompiledScriptCache implements CompiledScriptCacheMBean {
+
+    private final int maxSize;
+    private final Map<String, CacheEntry> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Creates a cache holding at most {@code maxSize} compiled scripts. A size smaller than {@code 1} disables caching.
+     *
+     * @param maxSize the maximum number of cached scripts
+     */
+    public CompiledScriptCache(int maxSize) {
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+                if (size() > CompiledScriptCache.this.maxSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Retrieves a compiled script.
+     *
+     * @param path         the path of the script
+     * @param lastModified the last modification time of the script resource; a negative value means the modification time is
+     *                     unknown, in which case the cache is bypassed
+     * @return the compiled script or {@code null} if the cache doesn't contain an up-to-date version of it
+     */
+    @Nullable
+    public CompiledScript get(@NotNull String path, long lastModified) {
+        if (!isEnabled() || lastModified < 0) {
+            return null;
+        }
+        CacheEntry entry;
+        synchronized (entries) {
+            entry = entries.get(path);
+        }
+        if (entry != null && entry.lastModified == lastModified) {
+            hits.incrementAndGet();
+            return entry.script;
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Stores a compiled script, replacing any previous version cached for the same path.
+     *
+     * @param path         the path of the script
+     * @param lastModified the last modification time of the script resource
+     * @param script       the compiled script
+     */
+    public void put(@NotNull String path, long lastModified, @NotNull CompiledScript script) {
+        if (isEnabled() && lastModified >= 0) {
+            synchronized (entries) {
+                entries.put(path, new CacheEntry(lastModified, script));
+            }
+        }
+    }
+
+    /**
+     * Removes all the cached scripts.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    @Override
+    public int getSize() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    @Override
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public long getHits() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public String toString() {
+        return "CompiledScriptCache{size=" + getSize() + ", maxSize=" + maxSize + ", hits=" + getHits() + ", misses=" + getMisses() +
+                ", evictions=" + getEvictions() + "}";
+    }
+
+    private static class CacheEntry {
+
+        private final long lastModified;
+        private final CompiledScript script;
+
+        CacheEntry(long lastModified, CompiledScript script) {
+            this.lastModified = lastModified;
+            this.script = script;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ ******************************************************************************/
+package org.apache.sling.scripting.sightly.js.impl.cache;
+
+/**
+ * Management interface exposing the statistics of a {@link CompiledScriptCache}.
+ */
+public interface CompiledScriptCacheMBean {
+
+    /**
+     * @return the number of cached scripts
+     */
+    int getSize();
+
+    /**
+     * @return the maximum number of cached scripts; a value smaller than {@code 1} means the cache is disabled
+     */
+    int getMaxSize();
+
+    /**
+     * @return the number of lookups which returned a cached script
+     */
+    long getHits();
+
+    /**
+     * @return the number of lookups which didn't return a cached script; the lookups bypassing the cache, because it is disabled or
+     * because the modification time of the script is unknown, are not counted
+     */
+    long getMisses();
+
+    /**
+     * @return the number of scripts evicted because the cache was full
+     */
+    long getEvictions();
+}
@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ ******************************************************************************/
+package org.apache.sling.scripting.sightly.js.impl.jsapi;
+
+import java.util.function.BiFunction;
+
+import org.mozilla.javascript.BaseFunction;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Function;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+/**
+ * Base class for the native implementations of the objects from the {@code sightly} namespace. The members of an object are
+ * computed by {@link #getMember(String)} instead of being stored as properties. The objects belong to the top-level scope of the
+ * script using the namespace, like the objects created by the JavaScript implementation.
+ */
+abstract class ApiObject extends ScriptableObject {
+
+    /**
+     * @param scope the scope of the script using the namespace
+     */
+    ApiObject(Scriptable scope) {
+        Scriptable topLevelScope = ScriptableObject.getTopLevelScope(scope);
+        setParentScope(topLevelScope);
+        setPrototype(ScriptableObject.getObjectPrototype(topLevelScope));
+    }
+
+    /**
+     * Returns the value of one of this object's members.
+     *
+     * @param name the member's name
+     * @return the member's value or {@link ScriptableObject#NOT_FOUND} if this object has no such member
+     */
+    protected abstract Object getMember(String name);
+
+    @Override
+    public Object get(String name, Scriptable start) {
+        Object member = getMember(name);
+        if (member != NOT_FOUND) {
+            return member;
+        }
+        return super.get(name, start);
+    }
+
+    @Override
+    public boolean has(String name, Scriptable start) {
+        return getMember(name) != NOT_FOUND || super.has(name, start);
+    }
+
+    /**
+     * Converts a Java value to its JavaScript representation, in this object's scope.
+     *
+     * @param value the Java value
+     * @return the JavaScript value
+     */
+    Object toJS(Object value) {
+        return Context.javaToJS(value, getParentScope());
+    }
+
+    /**
+     * Creates a function which invokes {@code body} with the object it was called on.
+     *
+     * @param type the type of the objects the function can be called on
+     * @param body the function's body
+     * @param <T>  the type of the objects the function can be called on
+     * @return the function
+     */
+    static <T extends Scriptable> Function method(final Class<T> type, final BiFunction<T, Object[], Object> body) {
+        return new BaseFunction() {
+            @Override
+            public Object call(Context cx, Scriptable scope, Scriptable thisObj, Object[] args) {
+                if (!type.isInstance(thisObj)) {
+                    throw new IllegalArgumentException("Method called on an incompatible object.");
+                }
+                return body.apply(type.cast(thisObj), args);
+            }
+        };
+    }
+}
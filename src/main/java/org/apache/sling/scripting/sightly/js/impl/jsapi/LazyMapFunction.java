@@ -0,0 +1,55 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ ******************************************************************************/
+package org.apache.sling.scripting.sightly.js.impl.jsapi;
+
+import java.util.Map;
+
+import org.mozilla.javascript.BaseFunction;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+import org.mozilla.javascript.Wrapper;
+
+/**
+ * Function used by {@code /libs/sling/sightly/js/internal/helper.js} for viewing a Java {@link Map} as a JavaScript object. The
+ * object is a {@link LazyMapObject}, so the map's keys are not enumerated and its values are read only when they are accessed. The
+ * function is shared by all the scripts and is therefore sealed.
+ */
+public final class LazyMapFunction extends BaseFunction {
+
+    public static final LazyMapFunction INSTANCE = new LazyMapFunction();
+
+    private LazyMapFunction() {
+        sealObject();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Object call(Context cx, Scriptable scope, Scriptable thisObj, Object[] args) {
+        Object map = args.length == 0 ? null : args[0];
+        if (map instanceof Wrapper) {
+            map = ((Wrapper) map).unwrap();
+        }
+        if (!(map instanceof Map)) {
+            throw new IllegalArgumentException("The lazy map function expects a java.util.Map as its first argument.");
+        }
+        Scriptable topLevelScope = ScriptableObject.getTopLevelScope(scope);
+        return new LazyMapObject<>(topLevelScope, (Map<String, Object>) map, value -> Context.javaToJS(value, topLevelScope));
+    }
+}
@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ ******************************************************************************/
+package org.apache.sling.scripting.sightly.js.impl.jsapi;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import org.mozilla.javascript.Scriptable;
+
+/**
+ * Lazy JavaScript view over a {@link Map}, such as a resource's {@link org.apache.sling.api.resource.ValueMap} or a request's
+ * parameters. A property is read from the map and converted to its JavaScript representation only when it's accessed for the first
+ * time; the converted value is then cached.
+ */
+class LazyMapObject<V> extends ApiObject {
+
+    private final Map<String, V> map;
+    private final Function<V, Object> converter;
+    private final Map<String, Object> values = new HashMap<>();
+
+    /**
+     * @param scope     the scope of the script using the map
+     * @param map       the backing map
+     * @param converter the function converting the map's values to JavaScript values
+     */
+    LazyMapObject(Scriptable scope, Map<String, V> map, Function<V, Object> converter) {
+        super(scope);
+        this.map = map;
+        this.converter = converter;
+    }
+
+    @Override
+    public String getClassName() {
+        return "Object";
+    }
+
+    @Override
+    protected Object getMember(String name) {
+        Object value = values.get(name);
+        if (value == null && !values.containsKey(name)) {
+            if (map.containsKey(name)) {
+                value = converter.apply(map.get(name));
+            } else {
+                value = NOT_FOUND;
+            }
+            values.put(name, value);
+        }
+        return value;
+    }
+
+    @Override
+    public void put(String name, Scriptable start, Object value) {
+        if (start == this) {
+            values.put(name, value);
+        } else {
+            super.put(name, start, value);
+        }
+    }
+
+    @Override
+    public void delete(String name) {
+        values.put(name, NOT_FOUND);
+        super.delete(name);
+    }
+
+    @Override
+    public Object[] getIds() {
+        Set<Object> ids = new LinkedHashSet<>();
+        for (String key : map.keySet()) {
+            if (values.get(key) != NOT_FOUND) {
+                ids.add(key);
+            }
+        }
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            if (entry.getValue() != NOT_FOUND) {
+                ids.add(entry.getKey());
+            }
+        }
+        for (Object id : super.getIds()) {
+            ids.add(id);
+        }
+        return ids.toArray();
+    }
+}
@@ -16,17 +16,21 @@
  ******************************************************************************/
 package org.apache.sling.scripting.sightly.js.impl.jsapi;
 
-import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.script.Bindings;
 import javax.script.ScriptEngine;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.sling.api.resource.ResourceResolver;
-import org.apache.sling.api.scripting.LazyBindings;
+import org.apache.sling.scripting.sightly.SightlyException;
 import org.apache.sling.scripting.sightly.js.impl.JsEnvironment;
+import org.apache.sling.scripting.sightly.js.impl.LayeredBindings;
 import org.apache.sling.scripting.sightly.js.impl.rhino.HybridObject;
+import org.jetbrains.annotations.Nullable;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ScriptRuntime;
 import org.mozilla.javascript.Scriptable;
 import org.mozilla.javascript.ScriptableObject;
 import org.mozilla.javascript.Undefined;
@@ -41,25 +45,75 @@ import org.slf4j.LoggerFactory;
 public class ProxyAsyncScriptableFactory {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ProxyAsyncScriptableFactory.class);
+    private static final int MAX_REPORTED_USES = 1000;
+
+    /**
+     * The namespace and script pairs for which the deprecation warning was logged. When the set is full it is cleared, so the
+     * warnings are logged again.
+     */
+    private final Set<String> reportedUses = ConcurrentHashMap.newKeySet();
 
     @Reference
     private SlyBindingsValuesProvider slyBindingsValuesProvider = null;
 
-    public void registerProxies(ResourceResolver resourceResolver, JsEnvironment environment, Bindings bindings) {
+    /**
+     * Adds a shadow object for each of the namespaces provided by the {@link SlyBindingsValuesProvider} factories. The passed
+     * bindings are not modified; the shadows are added to a layer over them, which is also the view the factories are run with.
+     *
+     * @param resourceResolver the resource resolver of the call
+     * @param environment      the environment the factories are run in
+     * @param bindings         the bindings of the call
+     * @return the bindings of the call together with the namespace shadows
+     */
+    public Bindings registerProxies(ResourceResolver resourceResolver, JsEnvironment environment, Bindings bindings) {
         slyBindingsValuesProvider.initialise(resourceResolver, environment, bindings);
-        Bindings bindingsCopy = new LazyBindings();
+        Bindings proxies = new LayeredBindings(bindings);
         for (String factoryName : slyBindingsValuesProvider.getScriptPaths().keySet()) {
-            ShadowScriptableObject shadowScriptableObject = new ShadowScriptableObject(factoryName, bindingsCopy);
-            bindings.put(factoryName, shadowScriptableObject);
+            proxies.put(factoryName, new ShadowScriptableObject(factoryName, proxies));
         }
-        bindingsCopy.putAll(bindings);
+        return proxies;
     }
 
+    private void reportUse(String namespace, String script) {
+        String use = namespace + ":" + script;
+        if (reportedUses.contains(use)) {
+            return;
+        }
+        if (reportedUses.size() >= MAX_REPORTED_USES) {
+            reportedUses.clear();
+        }
+        if (reportedUses.add(use)) {
+            LOGGER.warn(
+                "Script {} uses the deprecated asynchronous API provided by the '{}' namespace. Please refactor the script to" +
+                    " use the synchronous API provided by the org.apache.sling.scripting.javascript bundle.", script, namespace);
+        }
+    }
+
+    /**
+     * Returns the top-level scope of the script which is running on the current thread, if any.
+     */
+    @Nullable
+    private static Scriptable getCallerScope() {
+        Context context = Context.getCurrentContext();
+        if (context != null && ScriptRuntime.hasTopCall(context)) {
+            return ScriptRuntime.getTopCallScope(context);
+        }
+        return null;
+    }
+
+    /**
+     * Placeholder for a namespace, which runs the namespace's factory the first time one of its members is read and then delegates
+     * to the created object. The other namespaces are not created: a factory which reads another namespace gets that namespace's
+     * shadow, so the factories can depend on each other regardless of their configuration order. A factory which reads a member of
+     * its own namespace while it is being created, directly or through another factory, fails with a {@link SightlyException}.
+     */
     class ShadowScriptableObject extends ScriptableObject {
 
         private String clazz;
         private Bindings bindings;
-        private Set<String> scriptNSUse = new HashSet<>();
+        private HybridObject namespace;
+        private boolean resolving;
+        private boolean resolved;
 
         public ShadowScriptableObject(String clazz, Bindings bindings) {
             this.clazz = clazz;
@@ -73,21 +127,26 @@ public class ProxyAsyncScriptableFactory {
 
         @Override
         public Object get(String name, Scriptable start) {
-            Object object = bindings.get(clazz);
-            if (!(object instanceof HybridObject)) {
-                slyBindingsValuesProvider.processBindings(bindings);
-            }
-            HybridObject hybridObject = (HybridObject) bindings.get(clazz);
-            if (hybridObject != null) {
-                String script = (String) bindings.get(ScriptEngine.FILENAME);
-                if (StringUtils.isNotEmpty(script)) {
-                    if (scriptNSUse.add(clazz + ":" + script)) {
-                        LOGGER.warn(
-                            "Script {} uses the deprecated asynchronous API provided by the '{}' namespace. Please refactor the script to" +
-                                " use the synchronous API provided by the org.apache.sling.scripting.javascript bundle.", script, clazz);
+            if (!resolved) {
+                if (resolving) {
+                    throw new SightlyException("Circular dependency between the factories of the '" + clazz + "' namespace.");
+                }
+                resolving = true;
+                try {
+                    namespace = slyBindingsValuesProvider.processNamespace(bindings, clazz, getCallerScope());
+                } finally {
+                    resolving = false;
+                }
+                resolved = true;
+                if (namespace != null) {
+                    String script = (String) bindings.get(ScriptEngine.FILENAME);
+                    if (StringUtils.isNotEmpty(script)) {
+                        reportUse(clazz, script);
                     }
                 }
-                return hybridObject.get(name, start);
+            }
+            if (namespace != null) {
+                return namespace.get(name, start);
             }
             return Undefined.instance;
         }
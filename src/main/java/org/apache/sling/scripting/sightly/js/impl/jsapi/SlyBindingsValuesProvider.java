@@ -24,40 +24,65 @@ import java.io.InputStreamReader;
 import java.io.StringReader;
 import java.nio.charset.StandardCharsets;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.Dictionary;
+import java.util.Hashtable;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.script.Bindings;
 import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
 import javax.servlet.http.HttpServletRequest;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.sling.api.resource.LoginException;
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
 import org.apache.sling.api.scripting.LazyBindings;
 import org.apache.sling.api.scripting.SlingBindings;
 import org.apache.sling.commons.osgi.PropertiesUtil;
 import org.apache.sling.scripting.core.ScriptNameAwareReader;
 import org.apache.sling.scripting.sightly.SightlyException;
 import org.apache.sling.scripting.sightly.js.impl.JsEnvironment;
+import org.apache.sling.scripting.sightly.js.impl.JsUseProvider;
+import org.apache.sling.scripting.sightly.js.impl.LayeredBindings;
 import org.apache.sling.scripting.sightly.js.impl.Variables;
 import org.apache.sling.scripting.sightly.js.impl.async.AsyncContainer;
 import org.apache.sling.scripting.sightly.js.impl.async.AsyncExtractor;
+import org.apache.sling.scripting.sightly.js.impl.async.ClearTimingFunction;
+import org.apache.sling.scripting.sightly.js.impl.async.PromiseLibrary;
 import org.apache.sling.scripting.sightly.js.impl.async.TimingBindingsValuesProvider;
 import org.apache.sling.scripting.sightly.js.impl.async.TimingFunction;
+import org.apache.sling.scripting.sightly.js.impl.cache.CompiledScriptCache;
 import org.apache.sling.scripting.sightly.js.impl.cjs.CommonJsModule;
+import org.apache.sling.scripting.sightly.js.impl.rhino.ContextSession;
 import org.apache.sling.scripting.sightly.js.impl.rhino.HybridObject;
 import org.apache.sling.scripting.sightly.js.impl.rhino.JsValueAdapter;
+import org.apache.sling.scripting.sightly.js.impl.rhino.SealedScope;
+import org.apache.sling.scripting.sightly.js.impl.use.DependencyResolver;
+import org.jetbrains.annotations.Nullable;
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.Function;
 import org.mozilla.javascript.Script;
 import org.mozilla.javascript.Scriptable;
 import org.mozilla.javascript.ScriptableObject;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
 import org.osgi.service.component.ComponentContext;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
 import org.osgi.service.metatype.annotations.AttributeDefinition;
 import org.osgi.service.metatype.annotations.Designate;
 import org.osgi.service.metatype.annotations.ObjectClassDefinition;
@@ -66,6 +91,10 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Provides the {@code sightly} namespace for usage in HTL &amp; JS scripts called from Sightly
+ * <p>
+ * The loaded factories and the compiled Q library form an immutable snapshot, published through an atomic reference, so that
+ * readers never block. When one of the factory scripts or the Q library changes, a new snapshot is built in the background and
+ * swapped in.</p>
  */
 @Component(
         service = SlyBindingsValuesProvider.class,
@@ -92,6 +121,24 @@ public class SlyBindingsValuesProvider {
         )
         String[] org_apache_sling_scripting_sightly_js_bindings() default "sightly:" + SlyBindingsValuesProvider.SLING_NS_PATH;
 
+        @AttributeDefinition(
+                name = "Native Promises",
+                description = "If enabled, the script factories receive a native promise library instead of the Q library, avoiding the" +
+                        " evaluation of the Q library for every request. The native library only provides the Q(value), Q.resolve(value) and" +
+                        " Q.reject(reason) functions, with promises supporting then, fail and catch. Do not enable this option if " +
+                        "the configured factories, or the scripts using the promises they return, depend on other parts of the Q API " +
+                        "(e.g. done, fin, spread, Q.all, Q.defer or Q.when)."
+        )
+        boolean org_apache_sling_scripting_sightly_js_native_promises() default false;
+
+        @AttributeDefinition(
+                name = "Native Namespace",
+                description = "If enabled, the namespaces provided by the " + SlyBindingsValuesProvider.SLING_NS_PATH + " script " +
+                        "are built by a Java implementation of the script, which avoids the construction of the JavaScript wrappers for " +
+                        "every request."
+        )
+        boolean org_apache_sling_scripting_sightly_js_native_namespace() default false;
+
     }
 
     public static final String SCR_PROP_JS_BINDING_IMPLEMENTATIONS = "org.apache.sling.scripting.sightly.js.bindings";
@@ -106,89 +153,189 @@ public class SlyBindingsValuesProvider {
     private final AsyncExtractor asyncExtractor = new AsyncExtractor();
     private final JsValueAdapter jsValueAdapter = new JsValueAdapter(asyncExtractor);
 
-    private Map<String, String> scriptPaths = new HashMap<>();
-    private Map<String, Function> factories = new HashMap<>();
+    private volatile Map<String, String> scriptPaths = Collections.emptyMap();
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>();
+    private final AtomicBoolean reloadPending = new AtomicBoolean();
 
-    private Script qScript;
+    private volatile boolean nativePromises;
+    private volatile boolean nativeNamespace;
     private final ScriptableObject qScope = createQScope();
 
+    private volatile ExecutorService reloadExecutor;
+    private ServiceRegistration<ResourceChangeListener> changeListenerRegistration;
+
+    @Reference
+    private ResourceResolverFactory resourceResolverFactory;
+
+    @Reference
+    private ScriptEngineManager scriptEngineManager;
+
     public void initialise(ResourceResolver resourceResolver, JsEnvironment environment, Bindings bindings) {
         if (needsInit()) {
             init(resourceResolver, environment, bindings);
         }
     }
 
-    public void processBindings(Bindings bindings) {
-        if (needsInit()) {
-            throw new SightlyException("Attempted to call processBindings without calling initialise first.");
+    /**
+     * Creates the object of a single namespace, by running only the namespace's factory. The other namespaces are not created; if
+     * the factory reads another namespace from the bindings, it gets that namespace's shadow, which runs the other factory the first
+     * time one of its members is read.
+     *
+     * @param bindings  the bindings passed to the factory
+     * @param namespace the namespace
+     * @param scope     the scope of the script using the namespace, in which the native namespace creates its objects; if
+     *                  {@code null}, the {@link SealedScope} is used
+     * @return the namespace's object or {@code null} if no factory is configured for the namespace or if the Q library is not
+     * available
+     */
+    public HybridObject processNamespace(Bindings bindings, String namespace, @Nullable Scriptable scope) {
+        Snapshot current = snapshot.get();
+        if (current == null) {
+            throw new SightlyException("Attempted to call processNamespace without calling initialise first.");
+        }
+        Function factory = current.factories.get(namespace);
+        if (factory == null) {
+            return null;
         }
-        Context context = null;
+        Context context = ContextSession.enter();
         try {
-            context = Context.enter();
-            Object qInstance = obtainQInstance(context, bindings);
+            Object qInstance = obtainQInstance(context, bindings, current.qScript);
             if (qInstance == null) {
-                return;
-            }
-            for (Map.Entry<String, Function> entry : factories.entrySet()) {
-                addBinding(context, entry.getValue(), bindings, entry.getKey(), qInstance);
+                return null;
             }
+            return createNamespace(context, factory, bindings, qInstance, scope != null ? scope : SealedScope.get());
         } finally {
-            if (context != null) {
-                Context.exit();
-            }
+            ContextSession.exit();
         }
     }
 
     public Map<String, String> getScriptPaths() {
-        return Collections.unmodifiableMap(scriptPaths);
+        return scriptPaths;
     }
 
     @Activate
-    protected void activate(Configuration configuration) {
+    protected void activate(Configuration configuration, BundleContext bundleContext) {
         String[] factories = PropertiesUtil.toStringArray(
                 configuration.org_apache_sling_scripting_sightly_js_bindings(),
                 new String[]{SLING_NS_PATH}
         );
-        scriptPaths = new LinkedHashMap<>(factories.length);
+        nativePromises = configuration.org_apache_sling_scripting_sightly_js_native_promises();
+        nativeNamespace = configuration.org_apache_sling_scripting_sightly_js_native_namespace();
+        Map<String, String> paths = new LinkedHashMap<>(factories.length);
         for (String f : factories) {
             String[] parts = f.split(":");
             if (parts.length == 2) {
-                scriptPaths.put(parts[0], parts[1]);
+                paths.put(parts[0], parts[1]);
             }
         }
+        scriptPaths = Collections.unmodifiableMap(paths);
+        reloadExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "sling-js-use-factories-reload");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Set<String> watchedPaths = new LinkedHashSet<>(paths.values());
+        if (!nativePromises) {
+            watchedPaths.add(Q_PATH);
+        }
+        Dictionary<String, Object> properties = new Hashtable<>();
+        properties.put(ResourceChangeListener.PATHS, watchedPaths.toArray(new String[0]));
+        properties.put(ResourceChangeListener.CHANGES, new String[] {"ADDED", "CHANGED", "REMOVED"});
+        changeListenerRegistration =
+                bundleContext.registerService(ResourceChangeListener.class, changes -> scheduleReload(), properties);
     }
 
     @Deactivate
     protected void deactivate(ComponentContext componentContext) {
-        if (scriptPaths != null) {
-            scriptPaths.clear();
+        if (changeListenerRegistration != null) {
+            changeListenerRegistration.unregister();
+            changeListenerRegistration = null;
         }
-        if (factories != null) {
-            factories.clear();
+        if (reloadExecutor != null) {
+            reloadExecutor.shutdownNow();
+            reloadExecutor = null;
         }
+        scriptPaths = Collections.emptyMap();
+        snapshot.set(null);
     }
 
 
-    private void addBinding(Context context, Function factory, Bindings bindings, String globalName, Object qInstance) {
-        if (factory == null) {
-            return;
-        }
-        Object result = factory.call(context, factory, factory, new Object[] {bindings, qInstance});
-        HybridObject global = new HybridObject((Scriptable) result, jsValueAdapter);
-        bindings.put(globalName, global);
+    private HybridObject createNamespace(Context context, Function factory, Bindings bindings, Object qInstance, Scriptable scope) {
+        Object result = factory.call(context, scope, factory, new Object[] {bindings, qInstance});
+        return new HybridObject((Scriptable) result, jsValueAdapter);
     }
 
     private boolean needsInit() {
-        return factories == null || factories.isEmpty() || qScript == null;
+        Snapshot current = snapshot.get();
+        return current == null || (current.qScript == null && !nativePromises);
     }
 
     private synchronized void init(ResourceResolver resourceResolver, JsEnvironment jsEnvironment, Bindings bindings) {
         if (needsInit()) {
-            factories = new HashMap<>(scriptPaths.size());
-            for (Map.Entry<String, String> entry : scriptPaths.entrySet()) {
+            snapshot.set(loadSnapshot(resourceResolver, jsEnvironment, bindings));
+        }
+    }
+
+    private Snapshot loadSnapshot(ResourceResolver resourceResolver, JsEnvironment jsEnvironment, Bindings bindings) {
+        Map<String, Function> factories = new LinkedHashMap<>(scriptPaths.size());
+        for (Map.Entry<String, String> entry : scriptPaths.entrySet()) {
+            if (nativeNamespace && SLING_NS_PATH.equals(entry.getValue())) {
+                factories.put(entry.getKey(), SlyNamespaceFactory.INSTANCE);
+            } else {
                 factories.put(entry.getKey(), loadFactory(resourceResolver, jsEnvironment, entry.getValue(), bindings));
             }
-            qScript = loadQScript(resourceResolver);
+        }
+        Script qScript = nativePromises ? null : loadQScript(resourceResolver);
+        return new Snapshot(Collections.unmodifiableMap(factories), qScript);
+    }
+
+    private void scheduleReload() {
+        ExecutorService executor = reloadExecutor;
+        if (executor != null && reloadPending.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::reload);
+            } catch (RejectedExecutionException e) {
+                reloadPending.set(false);
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the snapshot after a change of the factory scripts or of the Q library. Until the new snapshot is swapped in, the
+     * requests keep using the previous one. If the snapshot cannot be rebuilt in the background, it is discarded and the next request
+     * rebuilds it. The background reload needs a service user mapped to this bundle, with read access to the factory scripts and to
+     * the Q library.
+     */
+    void reload() {
+        reloadPending.set(false);
+        long start = System.nanoTime();
+        ScriptEngine jsEngine = scriptEngineManager.getEngineByName(JsUseProvider.JS_ENGINE_NAME);
+        if (jsEngine == null) {
+            snapshot.set(null);
+            return;
+        }
+        ResourceResolver resolver;
+        try {
+            resolver = resourceResolverFactory.getServiceResourceResolver(null);
+        } catch (LoginException e) {
+            LOGGER.warn("Cannot reload the script factories in the background, since no service user is mapped to this bundle; " +
+                    "they will be reloaded by the next request.");
+            snapshot.set(null);
+            return;
+        }
+        try {
+            JsEnvironment environment = new JsEnvironment(jsEngine, new DependencyResolver(resolver), new CompiledScriptCache(0));
+            environment.initialize();
+            try {
+                snapshot.set(loadSnapshot(resolver, environment, new LazyBindings()));
+            } finally {
+                environment.cleanup();
+            }
+            LOGGER.info("Reloaded the script factories in {} ms.", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (RuntimeException e) {
+            LOGGER.error("Unable to reload the script factories; the previous ones are kept.", e);
+        } finally {
+            resolver.close();
         }
     }
 
@@ -218,14 +365,16 @@ public class SlyBindingsValuesProvider {
     }
 
     private Bindings createBindings(Bindings global, String factoryPath) {
-        Bindings bindings = new LazyBindings();
-        bindings.putAll(global);
+        Bindings bindings = new LayeredBindings(global);
         bindings.put(ScriptEngine.FILENAME, factoryPath);
         TimingBindingsValuesProvider.INSTANCE.addBindings(bindings);
         return bindings;
     }
 
-    private Object obtainQInstance(Context context, Bindings bindings) {
+    private Object obtainQInstance(Context context, Bindings bindings, Script qScript) {
+        if (nativePromises) {
+            return PromiseLibrary.INSTANCE;
+        }
         if (qScript == null) {
             return null;
         }
@@ -247,8 +396,10 @@ public class SlyBindingsValuesProvider {
         Context context = Context.enter();
         try {
             ScriptableObject scope = context.initStandardObjects();
-            ScriptableObject.putProperty(scope, Variables.SET_IMMEDIATE, TimingFunction.INSTANCE);
-            ScriptableObject.putProperty(scope, Variables.SET_TIMEOUT, TimingFunction.INSTANCE);
+            ScriptableObject.putProperty(scope, Variables.SET_IMMEDIATE, TimingFunction.IMMEDIATE);
+            ScriptableObject.putProperty(scope, Variables.SET_TIMEOUT, TimingFunction.TIMEOUT);
+            ScriptableObject.putProperty(scope, Variables.CLEAR_IMMEDIATE, ClearTimingFunction.INSTANCE);
+            ScriptableObject.putProperty(scope, Variables.CLEAR_TIMEOUT, ClearTimingFunction.INSTANCE);
             return scope;
         } finally {
             Context.exit();
@@ -290,4 +441,14 @@ public class SlyBindingsValuesProvider {
         return null;
     }
 
+    private static final class Snapshot {
+
+        private final Map<String, Function> factories;
+        private final Script qScript;
+
+        Snapshot(Map<String, Function> factories, Script qScript) {
+            this.factories = factories;
+            this.qScript = qScript;
+        }
+    }
 }
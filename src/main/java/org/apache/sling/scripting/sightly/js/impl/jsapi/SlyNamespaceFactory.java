@@ -0,0 +1,65 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ ******************************************************************************/
+package org.apache.sling.scripting.sightly.js.impl.jsapi;
+
+import javax.script.Bindings;
+
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.scripting.SlingBindings;
+import org.mozilla.javascript.BaseFunction;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+/**
+ * Native replacement for the factory function returned by {@code /libs/sling/sightly/js/internal/sly.js}. Like the script, it
+ * builds the {@code sightly} namespace with the {@code resource}, {@code properties} and {@code request} members from the bindings
+ * it's called with; the promises returned by the namespace's objects are always native promises. The namespace's objects are
+ * created in the top-level scope of the {@code scope} the factory is called with, which has to be the scope of the script using
+ * the namespace.
+ */
+final class SlyNamespaceFactory extends BaseFunction {
+
+    static final SlyNamespaceFactory INSTANCE = new SlyNamespaceFactory();
+
+    private SlyNamespaceFactory() {
+    }
+
+    @Override
+    public Object call(Context cx, Scriptable scope, Scriptable thisObj, Object[] args) {
+        if (args.length == 0 || !(args[0] instanceof Bindings)) {
+            throw new IllegalArgumentException("The sightly namespace factory expects the bindings as its first argument.");
+        }
+        Bindings bindings = (Bindings) args[0];
+        Scriptable topLevelScope = ScriptableObject.getTopLevelScope(scope);
+        Scriptable namespace = cx.newObject(topLevelScope);
+        Object resource = bindings.get(SlingBindings.RESOURCE);
+        if (resource instanceof Resource) {
+            SlyResource slyResource = new SlyResource(topLevelScope, (Resource) resource);
+            namespace.put("resource", namespace, slyResource);
+            namespace.put("properties", namespace, slyResource.getProperties());
+        }
+        Object request = bindings.get(SlingBindings.REQUEST);
+        if (request instanceof SlingHttpServletRequest) {
+            namespace.put("request", namespace, new SlyRequest(topLevelScope, (SlingHttpServletRequest) request));
+        }
+        return namespace;
+    }
+}
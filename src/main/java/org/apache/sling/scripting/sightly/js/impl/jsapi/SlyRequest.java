@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ ******************************************************************************/
+package org.apache.sling.scripting.sightly.js.impl.jsapi;
+
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.request.RequestParameter;
+import org.apache.sling.scripting.sightly.js.impl.rhino.ContextSession;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+
+/**
+ * Native implementation of the {@code Request} class from {@code /libs/sling/sightly/js/internal/request.js}.
+ */
+class SlyRequest extends ApiObject {
+
+    private static final Object[] IDS = {"parameters", "pathInfo", "nativeRequest"};
+
+    private final SlingHttpServletRequest nativeRequest;
+    private Scriptable parameters;
+    private SlyRequestPathInfo pathInfo;
+
+    SlyRequest(Scriptable scope, SlingHttpServletRequest nativeRequest) {
+        super(scope);
+        this.nativeRequest = nativeRequest;
+    }
+
+    @Override
+    public String getClassName() {
+        return "Request";
+    }
+
+    @Override
+    protected Object getMember(String name) {
+        switch (name) {
+            case "parameters":
+                return getParameters();
+            case "pathInfo":
+                if (pathInfo == null) {
+                    pathInfo = new SlyRequestPathInfo(getParentScope(), nativeRequest.getRequestPathInfo());
+                }
+                return pathInfo;
+            case "nativeRequest":
+                return toJS(nativeRequest);
+            default:
+                return NOT_FOUND;
+        }
+    }
+
+    @Override
+    public Object[] getIds() {
+        return IDS.clone();
+    }
+
+    private Scriptable getParameters() {
+        if (parameters == null) {
+            parameters = new LazyMapObject<>(getParentScope(), nativeRequest.getRequestParameterMap(), this::toStringArray);
+        }
+        return parameters;
+    }
+
+    private Object toStringArray(RequestParameter[] values) {
+        if (values == null) {
+            return null;
+        }
+        Object[] strings = new Object[values.length];
+        for (int i = 0; i < values.length; i++) {
+            strings[i] = values[i].getString();
+        }
+        Context context = ContextSession.enter();
+        try {
+            return context.newArray(getParentScope(), strings);
+        } finally {
+            ContextSession.exit();
+        }
+    }
+}
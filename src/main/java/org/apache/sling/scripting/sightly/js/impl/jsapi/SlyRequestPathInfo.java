@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ ******************************************************************************/
+package org.apache.sling.scripting.sightly.js.impl.jsapi;
+
+import org.apache.sling.api.request.RequestPathInfo;
+import org.mozilla.javascript.Scriptable;
+
+/**
+ * Native implementation of the {@code RequestPathInfo} class from {@code /libs/sling/sightly/js/internal/request.js}.
+ */
+class SlyRequestPathInfo extends ApiObject {
+
+    /**
+     * The other members are accessors of the {@code RequestPathInfo} prototype, so they are not enumerable.
+     */
+    private static final Object[] IDS = {"nativePathInfo"};
+
+    private final RequestPathInfo nativePathInfo;
+
+    SlyRequestPathInfo(Scriptable scope, RequestPathInfo nativePathInfo) {
+        super(scope);
+        this.nativePathInfo = nativePathInfo;
+    }
+
+    @Override
+    public String getClassName() {
+        return "RequestPathInfo";
+    }
+
+    @Override
+    protected Object getMember(String name) {
+        switch (name) {
+            case "resourcePath":
+                return nativePathInfo.getResourcePath();
+            case "extension":
+                return nativePathInfo.getExtension();
+            case "selectorString":
+                return nativePathInfo.getSelectorString();
+            case "selectors":
+                return toJS(nativePathInfo.getSelectors());
+            case "suffix":
+                return nativePathInfo.getSuffix();
+            case "nativePathInfo":
+                return toJS(nativePathInfo);
+            default:
+                return NOT_FOUND;
+        }
+    }
+
+    @Override
+    public Object[] getIds() {
+        return IDS.clone();
+    }
+}
@@ -0,0 +1,198 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ ******************************************************************************/
+package org.apache.sling.scripting.sightly.js.impl.jsapi;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.scripting.sightly.js.impl.async.JsPromise;
+import org.apache.sling.scripting.sightly.js.impl.rhino.ContextSession;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Function;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+/**
+ * Native implementation of the {@code Resource} class from {@code /libs/sling/sightly/js/internal/resource.js}.
+ */
+class SlyResource extends ApiObject {
+
+    private static final Function GET_PARENT = method(SlyResource.class, (resource, args) -> resource.getParent());
+    private static final Function GET_CHILDREN = method(SlyResource.class, (resource, args) -> resource.getChildren());
+    private static final Function LIST_CHILDREN = method(SlyResource.class,
+            (resource, args) -> resource.listChildren(args.length == 0 ? null : args[0]));
+    private static final Function GET_NAME = method(SlyResource.class, (resource, args) -> resource.getName());
+    private static final Function GET_RESOURCE_TYPE = method(SlyResource.class, (resource, args) -> resource.getResourceType());
+    private static final Function RESOLVE = method(SlyResource.class,
+            (resource, args) -> resource.resolve(args.length == 0 ? null : Context.toString(args[0])));
+
+    private static final Object[] IDS = {"path", "properties", "nativeResource"};
+
+    private final Resource nativeResource;
+    private final String path;
+    private Scriptable properties;
+
+    SlyResource(Scriptable scope, Resource nativeResource) {
+        super(scope);
+        this.nativeResource = nativeResource;
+        this.path = nativeResource.getPath();
+    }
+
+    @Override
+    public String getClassName() {
+        return "Resource";
+    }
+
+    @Override
+    protected Object getMember(String name) {
+        switch (name) {
+            case "path":
+                return path;
+            case "properties":
+                return getProperties();
+            case "nativeResource":
+                return toJS(nativeResource);
+            case "name":
+                return getName();
+            case "resourceType":
+                return getResourceType();
+            case "getParent":
+                return GET_PARENT;
+            case "getChildren":
+                return GET_CHILDREN;
+            case "listChildren":
+                return LIST_CHILDREN;
+            case "getName":
+                return GET_NAME;
+            case "getResourceType":
+                return GET_RESOURCE_TYPE;
+            case "resolve":
+                return RESOLVE;
+            default:
+                return NOT_FOUND;
+        }
+    }
+
+    @Override
+    public Object[] getIds() {
+        return IDS.clone();
+    }
+
+    Scriptable getProperties() {
+        if (properties == null) {
+            ValueMap valueMap = nativeResource.adaptTo(ValueMap.class);
+            if (valueMap != null) {
+                properties = new LazyMapObject<>(getParentScope(), valueMap, this::toJS);
+            } else {
+                Context context = ContextSession.enter();
+                try {
+                    properties = context.newObject(getParentScope());
+                } finally {
+                    ContextSession.exit();
+                }
+            }
+        }
+        return properties;
+    }
+
+    private Object getParent() {
+        int index = path.lastIndexOf('/');
+        if (index < 1) {
+            return null;
+        }
+        Resource parent = nativeResource.getResourceResolver().resolve(path.substring(0, index));
+        return JsPromise.resolved(new SlyResource(getParentScope(), parent));
+    }
+
+    private Object getChildren() {
+        return listChildren(0, -1);
+    }
+
+    private Object listChildren(Object options) {
+        int offset = 0;
+        int limit = -1;
+        if (options instanceof Scriptable) {
+            Scriptable scriptable = (Scriptable) options;
+            offset = Math.max(toInt(ScriptableObject.getProperty(scriptable, "offset"), 0), 0);
+            limit = toInt(ScriptableObject.getProperty(scriptable, "limit"), -1);
+        }
+        return listChildren(offset, limit);
+    }
+
+    private static int toInt(Object value, int defaultValue) {
+        if (value instanceof Number) {
+            double number = ((Number) value).doubleValue();
+            if (number >= 0) {
+                return (int) Math.min(number, Integer.MAX_VALUE);
+            }
+        }
+        return defaultValue;
+    }
+
+    private Object listChildren(int offset, int limit) {
+        ResourceResolver resolver = nativeResource.getResourceResolver();
+        List<Object> children = limit < 0 ? new ArrayList<>() : new ArrayList<>(Math.min(limit, 100));
+        Iterator<Resource> it = resolver.listChildren(nativeResource);
+        int toSkip = offset;
+        while (toSkip > 0 && it.hasNext()) {
+            it.next();
+            toSkip--;
+        }
+        while ((limit < 0 || children.size() < limit) && it.hasNext()) {
+            children.add(new SlyResource(getParentScope(), it.next()));
+        }
+        Context context = ContextSession.enter();
+        try {
+            return JsPromise.resolved(context.newArray(getParentScope(), children.toArray()));
+        } finally {
+            ContextSession.exit();
+        }
+    }
+
+    private String getName() {
+        int index = path.lastIndexOf('/');
+        if (index == -1) {
+            return path;
+        }
+        return path.substring(index + 1);
+    }
+
+    private String getResourceType() {
+        return nativeResource.getResourceType();
+    }
+
+    private Object resolve(String relativePath) {
+        Resource resource = relativePath == null ? null :
+                nativeResource.getResourceResolver().getResource(nativeResource, relativePath);
+        if (resource == null) {
+            Context context = ContextSession.enter();
+            try {
+                return JsPromise.rejected(context.newObject(getParentScope(), "Error",
+                        new Object[] {"No resource found at path: " + relativePath}));
+            } finally {
+                ContextSession.exit();
+            }
+        }
+        return JsPromise.resolved(new SlyResource(getParentScope(), resource));
+    }
+}
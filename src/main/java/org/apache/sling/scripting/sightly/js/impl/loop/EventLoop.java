@@ -18,8 +18,8 @@
  ******************************************************************************/
 package org.apache.sling.scripting.sightly.js.impl.loop;
 
-import java.util.LinkedList;
-import java.util.Queue;
+import java.util.ArrayDeque;
+import java.util.PriorityQueue;
 
 import org.apache.sling.scripting.sightly.SightlyException;
 import org.slf4j.Logger;
@@ -27,14 +27,35 @@ import org.slf4j.LoggerFactory;
 
 
 /**
- * Simulates an event loop for the Rhino JS engine.
+ * Simulates an event loop for the Rhino JS engine. Like in browsers and Node.js, the loop has two queues: the macrotask queue, for
+ * scripts and timing functions, and the microtask queue, for promise reactions. The microtask queue is drained after every macrotask.
+ * Both queues are array-backed and the tasks created internally for microtasks are recycled.
+ * <p>
+ * Delayed tasks are kept in a timer queue ordered by their due time. The loop uses a virtual clock: when both task queues are empty,
+ * the clock advances to the due time of the earliest timer, which is then run. Timers with the same due time run in the order in
+ * which they were scheduled and deactivated timers are discarded without running.</p>
+ * <p>
+ * In fail-fast mode (see {@link #setFailFast(boolean)}), the first error thrown by a task deactivates and discards all the queued
+ * tasks, instead of letting the loop run them only to rethrow the first error at the end.</p>
  */
 public class EventLoop {
 
     private static final Logger log = LoggerFactory.getLogger(EventLoop.class);
+    private static final int MAX_POOLED_TASKS = 64;
 
-    private Queue<Task> taskQueue = new LinkedList<Task>();
+    private final ArrayDeque<Task> macrotasks = new ArrayDeque<>();
+    private final ArrayDeque<Task> microtasks = new ArrayDeque<>();
+    private final ArrayDeque<Task> taskPool = new ArrayDeque<>();
+    private final PriorityQueue<Timer> timers = new PriorityQueue<>();
     private boolean isRunning;
+    private long currentTime;
+    private long timerSequence;
+    private boolean failFast;
+
+    private long executedTasks;
+    private int maxQueueDepth;
+    private long drainTimeNanos;
+    private long cancelledTasks;
 
     /**
      * Add a task to the queue. If the queue is empty, start running tasks. If it
@@ -42,29 +63,114 @@ public class EventLoop {
      * @param task the task to be added
      */
     public void schedule(Task task) {
-        taskQueue.offer(task);
+        macrotasks.offer(task);
+        updateQueueDepth();
+        run();
+    }
+
+    /**
+     * Add a microtask to the queue. Microtasks run before the next macrotask.
+     * @param runnable the microtask's code
+     */
+    public void scheduleMicrotask(Runnable runnable) {
+        Task task = taskPool.poll();
+        if (task == null) {
+            task = new Task(runnable, true);
+        } else {
+            task.reset(runnable);
+        }
+        microtasks.offer(task);
+        updateQueueDepth();
+        run();
+    }
+
+    /**
+     * Add a task to the timer queue. The task will run once the loop's virtual clock reaches its due time.
+     * @param task the task to be added
+     * @param delay the delay, in milliseconds, relative to the loop's current virtual time; negative values are treated as
+     *              {@code 0}
+     */
+    public void scheduleTimer(Task task, long delay) {
+        timers.offer(new Timer(task, currentTime + Math.max(delay, 0), timerSequence++));
+        updateQueueDepth();
         run();
     }
 
+    /**
+     * Set the fail-fast mode of this loop. In fail-fast mode, all the queued tasks are deactivated and discarded as soon as a task
+     * fails.
+     * @param failFast {@code true} to enable the fail-fast mode
+     */
+    public void setFailFast(boolean failFast) {
+        this.failFast = failFast;
+    }
+
+    /**
+     * Get the current virtual time of this loop
+     * @return the time, in milliseconds, elapsed on the loop's virtual clock
+     */
+    public long getCurrentTime() {
+        return currentTime;
+    }
+
+    /**
+     * Get the number of tasks run by this loop
+     * @return the number of tasks
+     */
+    public long getExecutedTasks() {
+        return executedTasks;
+    }
+
+    /**
+     * Get the maximum number of tasks that were queued at the same time
+     * @return the maximum queue depth
+     */
+    public int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    /**
+     * Get the number of queued tasks discarded by the fail-fast mode
+     * @return the number of tasks
+     */
+    public long getCancelledTasks() {
+        return cancelledTasks;
+    }
+
+    /**
+     * Get the total time spent draining the queues
+     * @return the time, in nanoseconds
+     */
+    public long getDrainTimeNanos() {
+        return drainTimeNanos;
+    }
+
     private void run() {
         if (isRunning) {
             return;
         }
         isRunning = true;
+        long start = System.nanoTime();
         try {
             // Holds the first exception encountered. If there is such a first exception, it will be
             // rethrown
             Exception thrownException = null;
-            while (!taskQueue.isEmpty()) {
-                Task task = taskQueue.poll();
+            Task task;
+            while ((task = nextTask()) != null) {
                 try {
                     task.run();
                 } catch (Exception e) {
                     if (thrownException == null) {
                         thrownException = e; //first exception
+                        if (failFast) {
+                            cancelPendingTasks();
+                        }
                     } else {
                         log.error("Additional error occurred while running JS script: ", e);
                     }
+                } finally {
+                    executedTasks++;
+                    recycle(task);
                 }
             }
             if (thrownException != null) {
@@ -72,6 +178,79 @@ public class EventLoop {
             }
         } finally {
             isRunning = false;
+            drainTimeNanos += System.nanoTime() - start;
+            if (log.isDebugEnabled()) {
+                log.debug("Event loop drained: {} tasks executed, {} tasks cancelled, maximum queue depth {}, {} ms spent draining.",
+                        executedTasks, cancelledTasks, maxQueueDepth, drainTimeNanos / 1000000);
+            }
+        }
+    }
+
+    private Task nextTask() {
+        Task task = microtasks.poll();
+        if (task == null) {
+            task = macrotasks.poll();
+        }
+        while (task == null && !timers.isEmpty()) {
+            Timer timer = timers.poll();
+            if (timer.task.isActive()) {
+                currentTime = Math.max(currentTime, timer.dueTime);
+                task = timer.task;
+            }
+        }
+        return task;
+    }
+
+    private void cancelPendingTasks() {
+        Task task;
+        while ((task = microtasks.poll()) != null) {
+            task.deactivate();
+            recycle(task);
+            cancelledTasks++;
+        }
+        while ((task = macrotasks.poll()) != null) {
+            task.deactivate();
+            cancelledTasks++;
+        }
+        Timer timer;
+        while ((timer = timers.poll()) != null) {
+            timer.task.deactivate();
+            cancelledTasks++;
+        }
+    }
+
+    private void recycle(Task task) {
+        if (task.isRecyclable()) {
+            task.clear();
+            if (taskPool.size() < MAX_POOLED_TASKS) {
+                taskPool.offer(task);
+            }
+        }
+    }
+
+    private void updateQueueDepth() {
+        int depth = macrotasks.size() + microtasks.size() + timers.size();
+        if (depth > maxQueueDepth) {
+            maxQueueDepth = depth;
+        }
+    }
+
+    private static final class Timer implements Comparable<Timer> {
+
+        private final Task task;
+        private final long dueTime;
+        private final long sequence;
+
+        Timer(Task task, long dueTime, long sequence) {
+            this.task = task;
+            this.dueTime = dueTime;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Timer other) {
+            int result = Long.compare(dueTime, other.dueTime);
+            return result != 0 ? result : Long.compare(sequence, other.sequence);
         }
     }
 
@@ -46,6 +46,16 @@ public class EventLoopInterop {
         return task;
     }
 
+    public static Task scheduleTimer(Context context, Runnable runnable, long delay) {
+        Task task = new Task(runnable);
+        obtainEventLoop(context).scheduleTimer(task, delay);
+        return task;
+    }
+
+    public static void scheduleMicrotask(Context context, Runnable runnable) {
+        obtainEventLoop(context).scheduleMicrotask(runnable);
+    }
+
     private static EventLoop getEventLoop(Context context) {
         return (EventLoop) context.getThreadLocal(EVENT_LOOP_KEY);
     }
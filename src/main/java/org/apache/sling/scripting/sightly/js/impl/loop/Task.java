@@ -23,12 +23,18 @@ package org.apache.sling.scripting.sightly.js.impl.loop;
  */
 public class Task {
 
-    private final Runnable runnable;
+    private Runnable runnable;
     private boolean active;
+    private final boolean recyclable;
 
     public Task(Runnable runnable) {
+        this(runnable, false);
+    }
+
+    Task(Runnable runnable, boolean recyclable) {
         this.runnable = runnable;
         this.active = true;
+        this.recyclable = recyclable;
     }
 
     public void run() {
@@ -40,4 +46,27 @@ public class Task {
     public void deactivate() {
         this.active = false;
     }
+
+    boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Check whether this task is owned by an event loop, which can reuse it after it has run. Such tasks are never handed out to
+     * scripts.
+     * @return {@code true} if the task can be reused
+     */
+    boolean isRecyclable() {
+        return recyclable;
+    }
+
+    void reset(Runnable runnable) {
+        this.runnable = runnable;
+        this.active = true;
+    }
+
+    void clear() {
+        this.runnable = null;
+        this.active = false;
+    }
 }
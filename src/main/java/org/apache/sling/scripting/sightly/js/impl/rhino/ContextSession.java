@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ ******************************************************************************/
+package org.apache.sling.scripting.sightly.js.impl.rhino;
+
+import javax.script.ScriptEngine;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.mozilla.javascript.Context;
+
+/**
+ * A session that keeps a Rhino {@link Context} entered on the current thread for the rest of a request, so that the many short JS
+ * operations performed while rendering the request (evaluating the Use-API scripts, unwrapping promises, reading the properties of
+ * the Use-objects from HTL) don't have to enter and exit a context each time.
+ * <p>
+ * A session is opened by the {@link ContextSessionFilter} for each request and closed when the request ends. It stays inactive, and
+ * {@link #enter()} and {@link #exit()} behave exactly like their {@link Context} counterparts, until {@link #begin(ScriptEngine)} is
+ * called. The context is then created by the script engine's context factory and configured with the engine's settings (see
+ * {@link EngineContext}), so that any other Rhino code which reuses it during the request runs as if the engine had entered it.</p>
+ * <p>
+ * Code that needs a context should call {@link #enter()} and {@link #exit()} instead of {@link Context#enter()} and
+ * {@link Context#exit()}.</p>
+ */
+public final class ContextSession {
+
+    private static final ThreadLocal<ContextSession> CURRENT = new ThreadLocal<>();
+
+    private final Thread thread = Thread.currentThread();
+    private EngineContext.Entered entered;
+
+    private ContextSession() {
+    }
+
+    /**
+     * Opens a session on the current thread.
+     *
+     * @return the session, or {@code null} if a session is already open on the current thread
+     */
+    @Nullable
+    public static ContextSession open() {
+        if (CURRENT.get() != null) {
+            return null;
+        }
+        ContextSession session = new ContextSession();
+        CURRENT.set(session);
+        return session;
+    }
+
+    /**
+     * Activates the session open on the current thread, if any, by entering a context with the settings of {@code engine}. The call
+     * is ignored if the session is already active or if a context is already entered on the current thread, since that context is
+     * owned by someone else.
+     *
+     * @param engine the script engine whose settings the context should use
+     */
+    public static void begin(@NotNull ScriptEngine engine) {
+        ContextSession session = CURRENT.get();
+        if (session != null && session.entered == null && Context.getCurrentContext() == null) {
+            session.entered = EngineContext.of(engine).enter();
+        }
+    }
+
+    /**
+     * Returns a context for the current thread. If an active session is open, the session's context is returned; otherwise a context
+     * is entered.
+     *
+     * @return the current context
+     */
+    public static Context enter() {
+        ContextSession session = CURRENT.get();
+        if (session == null || session.entered == null) {
+            return Context.enter();
+        }
+        return session.entered.getContext();
+    }
+
+    /**
+     * Releases a context obtained through {@link #enter()}. If an active session is open on the current thread, the context stays
+     * entered until the session is closed.
+     */
+    public static void exit() {
+        ContextSession session = CURRENT.get();
+        if (session == null || session.entered == null) {
+            Context.exit();
+        }
+    }
+
+    /**
+     * Closes this session, exiting the session's context if the session was activated. A session has to be closed on the thread that
+     * opened it.
+     */
+    public void close() {
+        if (Thread.currentThread() != thread) {
+            throw new IllegalStateException("A context session has to be closed by the thread which opened it.");
+        }
+        CURRENT.remove();
+        if (entered != null) {
+            EngineContext.Entered toClose = entered;
+            entered = null;
+            toClose.close();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ ******************************************************************************/
+package org.apache.sling.scripting.sightly.js.impl.rhino;
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+import org.osgi.service.component.annotations.Component;
+
+/**
+ * Request filter that opens a {@link ContextSession} for the duration of each request, guaranteeing that the Rhino context used
+ * while rendering the request is exited when the request ends. The session stays inactive, and costs nothing, unless the
+ * {@link org.apache.sling.scripting.sightly.js.impl.JsUseProvider} is configured to use it.
+ */
+@Component(
+        service = Filter.class,
+        property = {
+                "sling.filter.scope=REQUEST"
+        }
+)
+public class ContextSessionFilter implements Filter {
+
+    @Override
+    public void init(FilterConfig filterConfig) {
+        // nothing to initialise
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+        ContextSession session = ContextSession.open();
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            if (session != null) {
+                session.close();
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        // nothing to destroy
+    }
+}
@@ -0,0 +1,210 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ ******************************************************************************/
+package org.apache.sling.scripting.sightly.js.impl.rhino;
+
+import javax.script.Bindings;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+
+import org.jetbrains.annotations.NotNull;
+import org.mozilla.javascript.BaseFunction;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+import org.mozilla.javascript.WrapFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The Rhino settings a {@link ScriptEngine} evaluates its scripts with: the context factory, the wrap factory, the language version,
+ * the optimization level, the debug and source generation flags and the instruction observer threshold, together with the engine's
+ * top-level scope. The settings are captured by evaluating a probe function with the engine, once per engine factory, so that the
+ * scripts compiled and evaluated directly with Rhino behave like the scripts evaluated by the engine. If the settings cannot be
+ * captured, Rhino's global context factory and the {@link SealedScope} are used.
+ * <p>
+ * Rhino allows only one context per thread: while a context is entered, entering another one returns the same context. A context
+ * created by the engine's context factory gets all the factory's settings, including its feature flags and instruction observer;
+ * when a context created by another factory is already entered, only the settings listed above can be copied onto it.</p>
+ */
+final class EngineContext {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EngineContext.class);
+    private static final String PROBE = "__sling_js_use_provider_probe";
+
+    private static volatile EngineContext current;
+
+    private final Object engineKey;
+    private final ContextFactory contextFactory;
+    private final WrapFactory wrapFactory;
+    private final int languageVersion;
+    private final int optimizationLevel;
+    private final boolean generatingDebug;
+    private final boolean generatingSource;
+    private final int instructionObserverThreshold;
+    private final ScriptableObject scope;
+
+    private EngineContext(Object engineKey, ContextFactory contextFactory, WrapFactory wrapFactory, int languageVersion,
+                          int optimizationLevel, boolean generatingDebug, boolean generatingSource, int instructionObserverThreshold,
+                          ScriptableObject scope) {
+        this.engineKey = engineKey;
+        this.contextFactory = contextFactory;
+        this.wrapFactory = wrapFactory;
+        this.languageVersion = languageVersion;
+        this.optimizationLevel = optimizationLevel;
+        this.generatingDebug = generatingDebug;
+        this.generatingSource = generatingSource;
+        this.instructionObserverThreshold = instructionObserverThreshold;
+        this.scope = scope;
+    }
+
+    private EngineContext(Object engineKey, Context context, ScriptableObject scope) {
+        this(engineKey, context.getFactory(), context.getWrapFactory(), context.getLanguageVersion(), context.getOptimizationLevel(),
+                context.isGeneratingDebug(), context.isGeneratingSource(), context.getInstructionObserverThreshold(), scope);
+    }
+
+    /**
+     * Returns the settings of an engine.
+     *
+     * @param engine the engine
+     * @return the engine's settings
+     */
+    static EngineContext of(@NotNull ScriptEngine engine) {
+        Object engineKey = engine.getFactory() != null ? engine.getFactory() : engine.getClass();
+        EngineContext engineContext = current;
+        if (engineContext == null || !engineContext.engineKey.equals(engineKey)) {
+            engineContext = probe(engineKey, engine);
+            current = engineContext;
+        }
+        return engineContext;
+    }
+
+    /**
+     * Returns the top-level scope shared by the scripts evaluated with these settings: the engine's top-level scope, if the engine
+     * chains the scope of each evaluation to one, or the {@link SealedScope} otherwise.
+     *
+     * @return the shared top-level scope
+     */
+    ScriptableObject getScope() {
+        return scope != null ? scope : SealedScope.get();
+    }
+
+    /**
+     * Enters a context configured with these settings. If no context is entered on the current thread, a new one is created by the
+     * engine's context factory. Otherwise the current context is reused, with these settings copied onto it; its previous settings
+     * are restored by {@link Entered#close()}.
+     *
+     * @return the entered context
+     */
+    Entered enter() {
+        Context context = contextFactory.enterContext();
+        Entered entered = new Entered(context);
+        if (wrapFactory != null) {
+            if (context.getFactory() != contextFactory) {
+                LOGGER.debug("A context created by another factory is entered; only the engine's settings are applied to it.");
+            }
+            entered.apply(wrapFactory, languageVersion, optimizationLevel, generatingDebug, generatingSource,
+                    instructionObserverThreshold);
+        }
+        return entered;
+    }
+
+    private static EngineContext probe(Object engineKey, ScriptEngine engine) {
+        final EngineContext[] captured = new EngineContext[1];
+        try {
+            Bindings bindings = engine.createBindings();
+            bindings.put(PROBE, new BaseFunction() {
+                @Override
+                public Object call(Context cx, Scriptable scope, Scriptable thisObj, Object[] args) {
+                    captured[0] = new EngineContext(engineKey, cx, findRootScope(scope));
+                    return Context.getUndefinedValue();
+                }
+            });
+            engine.eval(PROBE + "();", bindings);
+        } catch (ScriptException | RuntimeException e) {
+            LOGGER.warn("Unable to determine the Rhino settings of the script engine {}; Rhino's defaults will be used.",
+                    engine.getClass().getName(), e);
+        }
+        if (captured[0] == null) {
+            return new EngineContext(engineKey, ContextFactory.getGlobal(), null, 0, 0, false, false, 0, null);
+        }
+        return captured[0];
+    }
+
+    /**
+     * Finds the root scope the engine chains the top-level scope of each evaluation to, if any.
+     */
+    private static ScriptableObject findRootScope(Scriptable scope) {
+        Scriptable prototype = ScriptableObject.getTopLevelScope(scope).getPrototype();
+        // the prototype of a plain top-level scope is Object.prototype, while a root scope holds the standard objects
+        if (prototype instanceof ScriptableObject && ((ScriptableObject) prototype).has("Object", prototype)) {
+            return (ScriptableObject) prototype;
+        }
+        return null;
+    }
+
+    /**
+     * A context entered through {@link #enter()}, which has to be closed on the thread that entered it.
+     */
+    static final class Entered implements AutoCloseable {
+
+        private final Context context;
+        private final WrapFactory previousWrapFactory;
+        private final int previousLanguageVersion;
+        private final int previousOptimizationLevel;
+        private final boolean previousGeneratingDebug;
+        private final boolean previousGeneratingSource;
+        private final int previousInstructionObserverThreshold;
+
+        private Entered(Context context) {
+            this.context = context;
+            this.previousWrapFactory = context.getWrapFactory();
+            this.previousLanguageVersion = context.getLanguageVersion();
+            this.previousOptimizationLevel = context.getOptimizationLevel();
+            this.previousGeneratingDebug = context.isGeneratingDebug();
+            this.previousGeneratingSource = context.isGeneratingSource();
+            this.previousInstructionObserverThreshold = context.getInstructionObserverThreshold();
+        }
+
+        private void apply(WrapFactory wrapFactory, int languageVersion, int optimizationLevel, boolean generatingDebug,
+                           boolean generatingSource, int instructionObserverThreshold) {
+            context.setWrapFactory(wrapFactory);
+            context.setLanguageVersion(languageVersion);
+            // enabling the debug generation lowers the optimization level, so the flag is set first
+            context.setGeneratingDebug(generatingDebug);
+            context.setOptimizationLevel(optimizationLevel);
+            context.setGeneratingSource(generatingSource);
+            context.setInstructionObserverThreshold(instructionObserverThreshold);
+        }
+
+        Context getContext() {
+            return context;
+        }
+
+        @Override
+        public void close() {
+            try {
+                apply(previousWrapFactory, previousLanguageVersion, previousOptimizationLevel, previousGeneratingDebug,
+                        previousGeneratingSource, previousInstructionObserverThreshold);
+            } finally {
+                Context.exit();
+            }
+        }
+    }
+}
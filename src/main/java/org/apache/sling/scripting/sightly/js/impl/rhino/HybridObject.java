@@ -18,11 +18,13 @@
  ******************************************************************************/
 package org.apache.sling.scripting.sightly.js.impl.rhino;
 
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.sling.scripting.sightly.Record;
-import org.mozilla.javascript.Context;
 import org.mozilla.javascript.Function;
 import org.mozilla.javascript.Scriptable;
 import org.mozilla.javascript.ScriptableObject;
@@ -35,10 +37,24 @@ public class HybridObject implements Scriptable, Record<Object> {
 
     private final Scriptable scriptable;
     private final JsValueAdapter jsValueAdapter;
+    private final Map<String, Object> adaptedProperties;
+    private Set<String> propertyNames;
 
     public HybridObject(Scriptable scriptable, JsValueAdapter jsValueAdapter) {
+        this(scriptable, jsValueAdapter, false);
+    }
+
+    /**
+     * @param scriptable     the wrapped JS object
+     * @param jsValueAdapter the adapter converting the properties' values
+     * @param memoize        if {@code true}, the adapted value of a property is computed only once, when the property is first read
+     *                       through {@link #getProperty(String)}; JS getters and functions exposed as properties are therefore invoked
+     *                       at most once, regardless of how many times a template reads them
+     */
+    public HybridObject(Scriptable scriptable, JsValueAdapter jsValueAdapter, boolean memoize) {
         this.scriptable = scriptable;
         this.jsValueAdapter = jsValueAdapter;
+        this.adaptedProperties = memoize ? new HashMap<String, Object>() : null;
     }
 
     // Record implementation
@@ -48,16 +64,30 @@ public class HybridObject implements Scriptable, Record<Object> {
         if (name == null) {
             return null;
         }
-        Context.enter();
+        if (adaptedProperties != null) {
+            Object value = adaptedProperties.get(name);
+            if (value != null || adaptedProperties.containsKey(name)) {
+                return value;
+            }
+        }
+        Object value;
+        ContextSession.enter();
         try {
-            return getAdapted(name);
+            value = getAdapted(name);
         } finally {
-            Context.exit();
+            ContextSession.exit();
+        }
+        if (adaptedProperties != null) {
+            adaptedProperties.put(name, value);
         }
+        return value;
     }
 
     @Override
     public Set<String> getPropertyNames() {
+        if (adaptedProperties != null && propertyNames != null) {
+            return propertyNames;
+        }
         Object[] properties = scriptable.getIds();
         Set<String> keys = new HashSet<String>();
         for (Object property: properties) {
@@ -65,6 +95,10 @@ public class HybridObject implements Scriptable, Record<Object> {
                 keys.add((String) property);
             }
         }
+        if (adaptedProperties != null) {
+            propertyNames = Collections.unmodifiableSet(keys);
+            return propertyNames;
+        }
         return keys;
     }
 
@@ -79,6 +113,13 @@ public class HybridObject implements Scriptable, Record<Object> {
         return jsValueAdapter.adapt(obj);
     }
 
+    private void invalidate(String name) {
+        if (adaptedProperties != null) {
+            adaptedProperties.remove(name);
+            propertyNames = null;
+        }
+    }
+
     // Scriptable implementation
 
     @Override
@@ -108,6 +149,7 @@ public class HybridObject implements Scriptable, Record<Object> {
 
     @Override
     public void put(String name, Scriptable start, Object value) {
+        invalidate(name);
         scriptable.put(name, start, value);
     }
 
@@ -118,6 +160,7 @@ public class HybridObject implements Scriptable, Record<Object> {
 
     @Override
     public void delete(String name) {
+        invalidate(name);
         scriptable.delete(name);
     }
 
@@ -28,17 +28,16 @@ import org.mozilla.javascript.Scriptable;
 public class JsUtils {
 
     public static Object callFn(Function function, Context cx, Scriptable scope, Scriptable thisObj, Object[] args) {
-        boolean exitContext = false;
-        if (Context.getCurrentContext() == null) {
-            Context.enter();
-            exitContext = true;
+        Context current = Context.getCurrentContext();
+        if (current != null) {
+            return function.call((cx == null) ? current : cx, scope, thisObj, args);
         }
-        Context context = (cx == null) ? Context.getCurrentContext() : cx;
-        Object result = function.call(context, scope, thisObj, args);
-        if (exitContext) {
-            Context.exit();
+        Context context = ContextSession.enter();
+        try {
+            return function.call((cx == null) ? context : cx, scope, thisObj, args);
+        } finally {
+            ContextSession.exit();
         }
-        return result;
     }
 
 
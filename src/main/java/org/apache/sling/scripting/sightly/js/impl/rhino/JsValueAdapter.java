@@ -20,21 +20,32 @@ package org.apache.sling.scripting.sightly.js.impl.rhino;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.RandomAccess;
 
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.Function;
 import org.mozilla.javascript.NativeArray;
 import org.mozilla.javascript.ScriptableObject;
+import org.mozilla.javascript.Undefined;
+import org.mozilla.javascript.UniqueTag;
 import org.mozilla.javascript.Wrapper;
+import org.apache.sling.scripting.sightly.SightlyException;
 import org.apache.sling.scripting.sightly.js.impl.async.AsyncContainer;
 import org.apache.sling.scripting.sightly.js.impl.async.AsyncExtractor;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 /**
- * Converts JS objects to Java objects
+ * Converts JS objects to Java objects. The converter for a value is looked up by the value's concrete class and the outcome of the
+ * lookup is stored in a {@link ClassValue}, which doesn't prevent the classes from being unloaded. Converters for other types can be
+ * added through {@link #registerConverter(Class, JsValueConverter)}.
  */
 public class JsValueAdapter {
 
@@ -45,10 +56,66 @@ public class JsValueAdapter {
         knownConversions.put("Date", Date.class);
     }
 
+    private static final JsValueConverter<Object> NULL_CONVERTER = (jsValue, conversion) -> null;
+    private static final JsValueConverter<Object> IDENTITY_CONVERTER = (jsValue, conversion) -> jsValue;
+    private static final JsValueConverter<Object> WRAPPER_CONVERTER =
+            (jsValue, conversion) -> conversion.adapt(((Wrapper) jsValue).unwrap());
+    private static final JsValueConverter<Object> ASYNC_CONVERTER =
+            (jsValue, conversion) -> conversion.adapt(conversion.adapter().forceAsync(jsValue));
+    private static final JsValueConverter<Object> ARRAY_CONVERTER =
+            (jsValue, conversion) -> conversion.adapter().convertScriptable((ScriptableObject) jsValue, conversion, true, false);
+    private static final JsValueConverter<Object> FUNCTION_CONVERTER =
+            (jsValue, conversion) -> conversion.adapter().convertScriptable((ScriptableObject) jsValue, conversion, false, true);
+    private static final JsValueConverter<Object> SCRIPTABLE_CONVERTER =
+            (jsValue, conversion) -> conversion.adapter().convertScriptable((ScriptableObject) jsValue, conversion, false, false);
+    //convert any string-like type to plain java strings
+    private static final JsValueConverter<Object> CHAR_SEQUENCE_CONVERTER = (jsValue, conversion) -> jsValue.toString();
+    @SuppressWarnings("unchecked")
+    private static final JsValueConverter<Object> MAP_CONVERTER =
+            (jsValue, conversion) -> conversion.adapter().convertMap((Map<Object, Object>) jsValue, conversion);
+    @SuppressWarnings("unchecked")
+    private static final JsValueConverter<Object> LIST_CONVERTER =
+            (jsValue, conversion) -> conversion.adapter().convertList((List<Object>) jsValue, conversion);
+    @SuppressWarnings("unchecked")
+    private static final JsValueConverter<Object> ITERABLE_CONVERTER =
+            (jsValue, conversion) -> conversion.adapter().convertIterable((Iterable<Object>) jsValue, conversion);
+    private static final JsValueConverter<Object> NUMBER_CONVERTER = (jsValue, conversion) -> convertNumber((Number) jsValue);
+    private static final JsValueConverter<Object> OBJECT_ARRAY_CONVERTER =
+            (jsValue, conversion) -> conversion.adapter().convertObjectArray((Object[]) jsValue, conversion);
+
+    private static final List<JsValueConverter<Object>> CONVERTERS = Arrays.asList(NULL_CONVERTER, IDENTITY_CONVERTER,
+            WRAPPER_CONVERTER, ASYNC_CONVERTER, ARRAY_CONVERTER, FUNCTION_CONVERTER, SCRIPTABLE_CONVERTER, CHAR_SEQUENCE_CONVERTER,
+            MAP_CONVERTER, LIST_CONVERTER, ITERABLE_CONVERTER, NUMBER_CONVERTER, OBJECT_ARRAY_CONVERTER);
+
+    // the classes keep their ClassValue entries, so the entries store the index of the converter instead of the converter, which
+    // would keep this bundle's class loader from being unloaded
+    private static final ClassValue<Integer> CONVERTER_INDEXES = new ClassValue<Integer>() {
+        @Override
+        protected Integer computeValue(Class<?> type) {
+            return CONVERTERS.indexOf(resolveConverter(type));
+        }
+    };
+
     private final AsyncExtractor asyncExtractor;
+    private final boolean lazyCollections;
+    private final boolean memoizeProperties;
+    private volatile RegisteredConverters registeredConverters = RegisteredConverters.EMPTY;
 
     public JsValueAdapter(AsyncExtractor asyncExtractor) {
+        this(asyncExtractor, false, false);
+    }
+
+    /**
+     * @param asyncExtractor    the extractor used for unwrapping promises
+     * @param lazyCollections   if {@code true}, JS arrays, Java arrays, lists and maps are converted to read-only views whose
+     *                          elements are converted when they are accessed for the first time, instead of being deep-copied
+     * @param memoizeProperties if {@code true}, the {@link HybridObject}s created by this adapter memoize the adapted values of
+     *                          their properties
+     */
+    public JsValueAdapter(AsyncExtractor asyncExtractor, boolean lazyCollections, boolean memoizeProperties) {
         this.asyncExtractor = asyncExtractor;
+        this.lazyCollections = lazyCollections;
+        this.memoizeProperties = memoizeProperties;
     }
 
     /**
@@ -56,40 +123,86 @@ public class JsValueAdapter {
      * @param jsValue the original JS value
      * @return the Java correspondent
      */
-    @SuppressWarnings("unchecked")
     public Object adapt(Object jsValue) {
-        if (jsValue == null || jsValue == Context.getUndefinedValue() || jsValue == ScriptableObject.NOT_FOUND) {
-            return null;
+        return new Conversion().adapt(jsValue);
+    }
+
+    /**
+     * Registers a converter for the values of {@code type} and of its subtypes. The registered converters take precedence over the
+     * built-in conversions; if several registered converters apply to a value, the first one registered is used.
+     *
+     * @param type      the type of the values handled by the converter
+     * @param converter the converter
+     * @param <T>       the type of the values handled by the converter
+     */
+    public synchronized <T> void registerConverter(@NotNull Class<T> type, @NotNull JsValueConverter<? super T> converter) {
+        registeredConverters = registeredConverters.with(new RegisteredConverter<>(type, converter));
+    }
+
+    private static JsValueConverter<Object> resolveConverter(Class<?> cls) {
+        if (Undefined.class.isAssignableFrom(cls) || UniqueTag.class.isAssignableFrom(cls)) {
+            // covers both the undefined value and ScriptableObject.NOT_FOUND
+            return NULL_CONVERTER;
+        }
+        if (Wrapper.class.isAssignableFrom(cls)) {
+            return WRAPPER_CONVERTER;
+        }
+        if (AsyncContainer.class.isAssignableFrom(cls)) {
+            return ASYNC_CONVERTER;
+        }
+        if (ScriptableObject.class.isAssignableFrom(cls)) {
+            if (NativeArray.class.isAssignableFrom(cls)) {
+                return ARRAY_CONVERTER;
+            }
+            if (Function.class.isAssignableFrom(cls)) {
+                return FUNCTION_CONVERTER;
+            }
+            return SCRIPTABLE_CONVERTER;
+        }
+        if (CharSequence.class.isAssignableFrom(cls)) {
+            return CHAR_SEQUENCE_CONVERTER;
         }
-        if (jsValue instanceof Wrapper) {
-            return adapt(((Wrapper) jsValue).unwrap());
+        if (Map.class.isAssignableFrom(cls)) {
+            return MAP_CONVERTER;
         }
-        if (asyncExtractor.isPromise(jsValue)) {
-            return adapt(forceAsync(jsValue));
+        if (List.class.isAssignableFrom(cls)) {
+            return LIST_CONVERTER;
         }
-        if (jsValue instanceof ScriptableObject) {
-            return extractScriptable((ScriptableObject) jsValue);
+        if (Iterable.class.isAssignableFrom(cls)) {
+            return ITERABLE_CONVERTER;
         }
-        if (jsValue instanceof CharSequence) {
-            //convert any string-like type to plain java strings
-            return jsValue.toString();
+        if (Number.class.isAssignableFrom(cls)) {
+            return NUMBER_CONVERTER;
         }
-        if (jsValue instanceof Map) {
-            return convertMap((Map) jsValue);
+        if (Object[].class.isAssignableFrom(cls)) {
+            return OBJECT_ARRAY_CONVERTER;
         }
-        if (jsValue instanceof Iterable) {
-            return convertIterable((Iterable) jsValue);
+        return IDENTITY_CONVERTER;
+    }
+
+    private Object convertScriptable(ScriptableObject scriptable, Conversion conversion, boolean isArray, boolean isFunction) {
+        if (asyncExtractor.isPromise(scriptable)) {
+            return conversion.adapt(forceAsync(scriptable));
         }
-        if (jsValue instanceof Number) {
-            return convertNumber((Number) jsValue);
+        Class<?> knownConversion = knownConversions.get(scriptable.getClassName());
+        if (knownConversion != null) {
+            return Context.jsToJava(scriptable, knownConversion);
         }
-        if (jsValue instanceof Object[]) {
-            return convertIterable(Arrays.asList((Object[]) jsValue));
+        if (isArray) {
+            if (lazyCollections) {
+                NativeArray nativeArray = (NativeArray) scriptable;
+                return new LazyList((int) nativeArray.getLength(), i -> nativeArray.get(i, nativeArray), this);
+            }
+            return convertNativeArray((NativeArray) scriptable, conversion);
         }
-        return jsValue;
+        if (isFunction) {
+            return callFunction((Function) scriptable, conversion);
+        }
+        // a HybridObject doesn't convert its properties upfront, so it doesn't need to be tracked by the conversion
+        return new HybridObject(scriptable, this, memoizeProperties);
     }
 
-    private Object convertNumber(Number numValue) {
+    private static Object convertNumber(Number numValue) {
         if (numValue instanceof Double) {
             if (isLong((Double) numValue)) {
                 return numValue.longValue();
@@ -103,62 +216,202 @@ public class JsValueAdapter {
         return numValue;
     }
 
-    private boolean isLong(double x) {
+    private static boolean isLong(double x) {
         return x == Math.floor(x);
     }
 
     private Object forceAsync(Object jsValue) {
+        if (jsValue instanceof AsyncContainer && ((AsyncContainer) jsValue).isCompleted()) {
+            return ((AsyncContainer) jsValue).getResult();
+        }
         AsyncContainer asyncContainer = new AsyncContainer();
         asyncExtractor.extract(jsValue, asyncContainer.createCompletionCallback());
-        return asyncContainer.getResult();
-    }
-
-    private Object extractScriptable(ScriptableObject scriptableObject) {
-        Object obj = tryKnownConversion(scriptableObject);
-        if (obj != null) { return obj; }
-        if (scriptableObject instanceof NativeArray) {
-            return convertNativeArray((NativeArray) scriptableObject);
+        if (asyncContainer.isFailed()) {
+            throw new SightlyException(asyncContainer.getError());
         }
-        if (scriptableObject instanceof Function) {
-            return callFunction((Function) scriptableObject);
-        }
-        return new HybridObject(scriptableObject, this);
+        return asyncContainer.getResult();
     }
 
-    private Object callFunction(Function function) {
+    private Object callFunction(Function function, Conversion conversion) {
         Object result = JsUtils.callFn(function, null, function, function, new Object[0]);
-        return adapt(result);
+        return conversion.adapt(result);
     }
 
-    private Object[] convertNativeArray(NativeArray nativeArray) {
+    private Object[] convertNativeArray(NativeArray nativeArray, Conversion conversion) {
+        Object[] converted = (Object[]) conversion.lookup(nativeArray);
+        if (converted != null) {
+            return converted;
+        }
         int length = (int) nativeArray.getLength();
-        Object[] objects = new Object[length];
+        Object[] objects = conversion.register(nativeArray, new Object[length]);
         for (int i = 0; i < length; i++) {
             Object jsItem = nativeArray.get(i, nativeArray);
-            objects[i] = adapt(jsItem);
+            objects[i] = conversion.adapt(jsItem);
         }
         return objects;
     }
 
-    private Map<Object, Object> convertMap(Map<Object, Object> original) {
-        Map<Object, Object> map = new HashMap<Object, Object>();
+    @SuppressWarnings("unchecked")
+    private Map<Object, Object> convertMap(Map<Object, Object> original, Conversion conversion) {
+        if (lazyCollections) {
+            return new LazyMap(original, this);
+        }
+        Map<Object, Object> converted = (Map<Object, Object>) conversion.lookup(original);
+        if (converted != null) {
+            return converted;
+        }
+        Map<Object, Object> map = conversion.register(original, new HashMap<Object, Object>(Math.max(16, original.size() * 4 / 3 + 1)));
         for (Map.Entry<Object, Object> entry : original.entrySet()) {
-            map.put(entry.getKey(), adapt(entry.getValue()));
+            map.put(entry.getKey(), conversion.adapt(entry.getValue()));
         }
         return map;
     }
 
-    private List<Object> convertIterable(Iterable<Object> iterable) {
-        List<Object> objects = new ArrayList<Object>();
+    private List<Object> convertList(List<Object> list, Conversion conversion) {
+        if (lazyCollections) {
+            if (list instanceof RandomAccess) {
+                return new LazyList(list.size(), list::get, this);
+            }
+            // positional access is linear for lists such as LinkedList; copy the references once, the items are still adapted lazily
+            Object[] items = list.toArray();
+            return new LazyList(items.length, i -> items[i], this);
+        }
+        return convertIterable(list, conversion);
+    }
+
+    private List<Object> convertObjectArray(Object[] array, Conversion conversion) {
+        if (lazyCollections) {
+            return new LazyList(array.length, i -> array[i], this);
+        }
+        return convertIterable(Arrays.asList(array), conversion);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Object> convertIterable(Iterable<Object> iterable, Conversion conversion) {
+        List<Object> converted = (List<Object>) conversion.lookup(iterable);
+        if (converted != null) {
+            return converted;
+        }
+        List<Object> objects = conversion.register(iterable,
+                iterable instanceof Collection ? new ArrayList<Object>(((Collection<Object>) iterable).size()) : new ArrayList<Object>());
         for (Object obj : iterable) {
-            objects.add(adapt(obj));
+            objects.add(conversion.adapt(obj));
         }
         return objects;
     }
 
-    private static Object tryKnownConversion(ScriptableObject object) {
-        String className = object.getClassName();
-        Class<?> cls = knownConversions.get(className);
-        return (cls == null) ? null : Context.jsToJava(object, cls);
+    /**
+     * The state of a conversion started by {@link #adapt(Object)}. It keeps track of the already converted arrays, maps and iterables,
+     * so that shared containers are converted only once and cyclic structures are converted without overflowing the stack. The map
+     * tracking the containers is only created when the first container is converted.
+     */
+    public final class Conversion {
+
+        private IdentityHashMap<Object, Object> converted;
+
+        private Conversion() {
+        }
+
+        /**
+         * Convert a JS value which is part of this conversion
+         * @param jsValue the original JS value
+         * @return the Java correspondent
+         */
+        public Object adapt(Object jsValue) {
+            if (jsValue == null) {
+                return null;
+            }
+            Class<?> type = jsValue.getClass();
+            RegisteredConverter<?> registered = registeredConverters.find(type);
+            if (registered != null) {
+                return registered.convert(jsValue, this);
+            }
+            return CONVERTERS.get(CONVERTER_INDEXES.get(type)).convert(jsValue, this);
+        }
+
+        /**
+         * Record the Java correspondent of a JS container, before its contents are converted
+         * @param original  the JS container
+         * @param converted the Java correspondent
+         * @param <T>       the type of the Java correspondent
+         * @return the Java correspondent
+         */
+        <T> T register(Object original, T converted) {
+            if (this.converted == null) {
+                this.converted = new IdentityHashMap<>();
+            }
+            this.converted.put(original, converted);
+            return converted;
+        }
+
+        /**
+         * Retrieve the Java correspondent of an already converted JS container
+         * @param original the JS container
+         * @return the Java correspondent or {@code null} if the container was not converted yet
+         */
+        Object lookup(Object original) {
+            return converted == null ? null : converted.get(original);
+        }
+
+        private JsValueAdapter adapter() {
+            return JsValueAdapter.this;
+        }
+    }
+
+    /**
+     * An immutable list of registered converters. Registering a converter creates a new list, together with a new index, so the
+     * lookups cached for the previous list are discarded.
+     */
+    private static final class RegisteredConverters {
+
+        private static final RegisteredConverters EMPTY = new RegisteredConverters(Collections.emptyList());
+
+        private final List<RegisteredConverter<?>> converters;
+        private final ClassValue<Integer> indexes = new ClassValue<Integer>() {
+            @Override
+            protected Integer computeValue(Class<?> type) {
+                for (int i = 0; i < converters.size(); i++) {
+                    if (converters.get(i).type.isAssignableFrom(type)) {
+                        return i;
+                    }
+                }
+                return -1;
+            }
+        };
+
+        private RegisteredConverters(List<RegisteredConverter<?>> converters) {
+            this.converters = converters;
+        }
+
+        RegisteredConverters with(RegisteredConverter<?> converter) {
+            List<RegisteredConverter<?>> list = new ArrayList<>(converters.size() + 1);
+            list.addAll(converters);
+            list.add(converter);
+            return new RegisteredConverters(Collections.unmodifiableList(list));
+        }
+
+        @Nullable
+        RegisteredConverter<?> find(Class<?> type) {
+            if (converters.isEmpty()) {
+                return null;
+            }
+            int index = indexes.get(type);
+            return index < 0 ? null : converters.get(index);
+        }
+    }
+
+    private static final class RegisteredConverter<T> {
+
+        private final Class<T> type;
+        private final JsValueConverter<? super T> converter;
+
+        RegisteredConverter(Class<T> type, JsValueConverter<? super T> converter) {
+            this.type = type;
+            this.converter = converter;
+        }
+
+        Object convert(Object jsValue, Conversion conversion) {
+            return converter.convert(type.cast(jsValue), conversion);
+        }
     }
 }
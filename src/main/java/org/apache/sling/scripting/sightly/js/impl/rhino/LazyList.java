@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ ******************************************************************************/
+package org.apache.sling.scripting.sightly.js.impl.rhino;
+
+import java.util.AbstractList;
+import java.util.BitSet;
+import java.util.RandomAccess;
+import java.util.function.IntFunction;
+
+/**
+ * Read-only {@link java.util.List} view over a JS array or a Java list, whose elements are converted by a {@link JsValueAdapter} when
+ * they are accessed for the first time. The converted elements are memoized.
+ */
+class LazyList extends AbstractList<Object> implements RandomAccess {
+
+    private final IntFunction<Object> source;
+    private final JsValueAdapter jsValueAdapter;
+    private final Object[] values;
+    private final BitSet converted;
+
+    /**
+     * @param size           the number of elements
+     * @param source         provides the original element stored at a given index
+     * @param jsValueAdapter the adapter converting the elements
+     */
+    LazyList(int size, IntFunction<Object> source, JsValueAdapter jsValueAdapter) {
+        this.source = source;
+        this.jsValueAdapter = jsValueAdapter;
+        this.values = new Object[size];
+        this.converted = new BitSet(size);
+    }
+
+    @Override
+    public Object get(int index) {
+        if (index < 0 || index >= values.length) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + values.length);
+        }
+        if (!converted.get(index)) {
+            ContextSession.enter();
+            try {
+                values[index] = jsValueAdapter.adapt(source.apply(index));
+            } finally {
+                ContextSession.exit();
+            }
+            converted.set(index);
+        }
+        return values[index];
+    }
+
+    @Override
+    public int size() {
+        return values.length;
+    }
+}
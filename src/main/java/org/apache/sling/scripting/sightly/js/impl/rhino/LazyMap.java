@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ ******************************************************************************/
+package org.apache.sling.scripting.sightly.js.impl.rhino;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Read-only {@link Map} view over a Java map, whose values are converted by a {@link JsValueAdapter} when they are accessed for the
+ * first time. The converted values are memoized.
+ */
+class LazyMap extends AbstractMap<Object, Object> {
+
+    private final Map<Object, Object> source;
+    private final JsValueAdapter jsValueAdapter;
+    private final Map<Object, Object> values = new HashMap<>();
+    private Set<Object> keySet;
+    private Set<Entry<Object, Object>> entrySet;
+
+    LazyMap(Map<Object, Object> source, JsValueAdapter jsValueAdapter) {
+        this.source = source;
+        this.jsValueAdapter = jsValueAdapter;
+    }
+
+    @Override
+    public Object get(Object key) {
+        Object value = values.get(key);
+        if (value == null && !values.containsKey(key)) {
+            if (!source.containsKey(key)) {
+                return null;
+            }
+            ContextSession.enter();
+            try {
+                value = jsValueAdapter.adapt(source.get(key));
+            } finally {
+                ContextSession.exit();
+            }
+            values.put(key, value);
+        }
+        return value;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return source.containsKey(key);
+    }
+
+    @Override
+    public Set<Object> keySet() {
+        if (keySet == null) {
+            keySet = Collections.unmodifiableSet(source.keySet());
+        }
+        return keySet;
+    }
+
+    @Override
+    public int size() {
+        return source.size();
+    }
+
+    @Override
+    public Set<Entry<Object, Object>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<Entry<Object, Object>>() {
+                @Override
+                public Iterator<Entry<Object, Object>> iterator() {
+                    final Iterator<Object> keys = keySet().iterator();
+                    return new Iterator<Entry<Object, Object>>() {
+                        @Override
+                        public boolean hasNext() {
+                            return keys.hasNext();
+                        }
+
+                        @Override
+                        public Entry<Object, Object> next() {
+                            Object key = keys.next();
+                            return new SimpleImmutableEntry<>(key, get(key));
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return source.size();
+                }
+            };
+        }
+        return entrySet;
+    }
+}
@@ -0,0 +1,55 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ ******************************************************************************/
+package org.apache.sling.scripting.sightly.js.impl.rhino;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ScriptableObject;
+
+/**
+ * Holds a sealed top-level scope with the standard JavaScript objects, which is initialised once and can be safely shared by all
+ * threads.
+ */
+public final class SealedScope {
+
+    private SealedScope() {
+    }
+
+    /**
+     * Returns the shared sealed scope.
+     *
+     * @return the sealed scope
+     */
+    public static ScriptableObject get() {
+        return Holder.SCOPE;
+    }
+
+    private static final class Holder {
+
+        private static final ScriptableObject SCOPE = createScope();
+
+        private static ScriptableObject createScope() {
+            Context context = Context.enter();
+            try {
+                return context.initSealedStandardObjects();
+            } finally {
+                Context.exit();
+            }
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ ******************************************************************************/
+package org.apache.sling.scripting.sightly.js.impl.rhino;
+
+import java.io.IOException;
+import java.util.Map;
+
+import javax.script.Bindings;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.sling.scripting.core.ScriptNameAwareReader;
+import org.apache.sling.scripting.sightly.js.impl.cache.ClassFileCache;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.mozilla.javascript.CompilerEnvirons;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.GeneratedClassLoader;
+import org.mozilla.javascript.RhinoException;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+import org.mozilla.javascript.Undefined;
+import org.mozilla.javascript.optimizer.ClassCompiler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compiles scripts directly with Rhino and evaluates them in a thin, per-evaluation scope whose prototype is a top-level scope
+ * containing the standard JavaScript objects. The top-level scope is initialised only once and is shared by all the evaluations,
+ * instead of having the standard objects recreated for every script.
+ * <p>
+ * Scripts are compiled and evaluated with the Rhino settings of the engine they are compiled for (see {@link EngineContext}): its
+ * context factory, wrap factory, language version, optimization level, debug and source generation flags and instruction observer
+ * threshold and, if the engine has one, its root scope, so that Java objects are wrapped as they are when the engine evaluates
+ * scripts.</p>
+ * <p>
+ * When a {@link ClassFileCache} is provided, the class files generated by Rhino's optimizer are stored in the cache and are loaded
+ * from it, instead of being regenerated, as long as the script's content does not change.</p>
+ */
+public final class SharedScopeCompiler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SharedScopeCompiler.class);
+    private static final String CLASS_NAME_PREFIX = "org.apache.sling.scripting.sightly.js.impl.rhino.compiled.Script_";
+
+    private SharedScopeCompiler() {
+    }
+
+    /**
+     * Compiles the script provided by {@code reader}.
+     *
+     * @param engine the engine reported by the compiled script
+     * @param reader the script reader
+     * @return the compiled script
+     * @throws ScriptException if the script cannot be read or compiled
+     */
+    public static CompiledScript compile(@NotNull ScriptEngine engine, @NotNull ScriptNameAwareReader reader) throws ScriptException {
+        return compile(engine, reader, null);
+    }
+
+    /**
+     * Compiles the script provided by {@code reader}, reusing the class files stored in {@code classFileCache} for the same script
+     * content. The class file cache is ignored if Rhino runs in interpreted mode.
+     *
+     * @param engine         the engine reported by the compiled script
+     * @param reader         the script reader
+     * @param classFileCache the class file cache; can be {@code null}
+     * @return the compiled script
+     * @throws ScriptException if the script cannot be read or compiled
+     */
+    public static CompiledScript compile(@NotNull ScriptEngine engine, @NotNull ScriptNameAwareReader reader,
+                                         @Nullable ClassFileCache classFileCache) throws ScriptException {
+        EngineContext engineContext = EngineContext.of(engine);
+        try (EngineContext.Entered entered = engineContext.enter()) {
+            Context context = entered.getContext();
+            if (classFileCache == null || context.getOptimizationLevel() < 0) {
+                return new SharedScopeScript(engine, engineContext, context.compileReader(reader, reader.getScriptName(), 1, null));
+            }
+            return new SharedScopeScript(engine, engineContext, compileToClassFiles(context, IOUtils.toString(reader),
+                    reader.getScriptName(), classFileCache));
+        } catch (RhinoException e) {
+            throw toScriptException(e);
+        } catch (IOException e) {
+            throw new ScriptException(e);
+        }
+    }
+
+    private static Script compileToClassFiles(Context context, String source, String scriptName, ClassFileCache classFileCache) {
+        // the hash covers the compiler's settings as well, since they affect the generated classes
+        String contentHash = ClassFileCache.hash(context.getImplementationVersion() + '\n' + context.getOptimizationLevel() + '\n' +
+                context.getLanguageVersion() + '\n' + source);
+        Object[] classFiles = classFileCache.load(scriptName, contentHash);
+        if (classFiles != null) {
+            try {
+                return loadScript(context, classFiles);
+            } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+                LOGGER.warn("Unable to load the cached class files of script {}; the script will be recompiled.", scriptName, e);
+                classFileCache.remove(scriptName);
+            }
+        }
+        CompilerEnvirons compilerEnvirons = new CompilerEnvirons();
+        compilerEnvirons.initFromContext(context);
+        classFiles = new ClassCompiler(compilerEnvirons).compileToClassFiles(source, scriptName, 1,
+                CLASS_NAME_PREFIX + contentHash.substring(0, 16));
+        try {
+            Script script = loadScript(context, classFiles);
+            classFileCache.store(scriptName, contentHash, classFiles);
+            return script;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Unable to load the compiled classes of script " + scriptName + ".", e);
+        }
+    }
+
+    private static Script loadScript(Context context, Object[] classFiles) throws ReflectiveOperationException {
+        GeneratedClassLoader loader = context.createClassLoader(context.getApplicationClassLoader());
+        Class<?> scriptClass = null;
+        for (int i = 0; i < classFiles.length; i += 2) {
+            Class<?> definedClass = loader.defineClass((String) classFiles[i], (byte[]) classFiles[i + 1]);
+            if (scriptClass == null) {
+                // the script's class is always the first one
+                scriptClass = definedClass;
+            }
+        }
+        if (scriptClass == null) {
+            throw new ClassNotFoundException("No class files found.");
+        }
+        loader.linkClass(scriptClass);
+        return (Script) scriptClass.newInstance();
+    }
+
+    private static ScriptException toScriptException(RhinoException e) {
+        ScriptException scriptException = new ScriptException(e.getMessage(), e.sourceName(), e.lineNumber(), e.columnNumber());
+        scriptException.initCause(e);
+        return scriptException;
+    }
+
+    private static final class SharedScopeScript extends CompiledScript {
+
+        private final ScriptEngine engine;
+        private final EngineContext engineContext;
+        private final Script script;
+
+        SharedScopeScript(ScriptEngine engine, EngineContext engineContext, Script script) {
+            this.engine = engine;
+            this.engineContext = engineContext;
+            this.script = script;
+        }
+
+        @Override
+        public Object eval(ScriptContext scriptContext) throws ScriptException {
+            try (EngineContext.Entered entered = engineContext.enter()) {
+                Context context = entered.getContext();
+                ScriptableObject sharedScope = engineContext.getScope();
+                Scriptable scope = context.newObject(sharedScope);
+                scope.setPrototype(sharedScope);
+                scope.setParentScope(null);
+                Bindings bindings = scriptContext.getBindings(ScriptContext.ENGINE_SCOPE);
+                for (Map.Entry<String, Object> entry : bindings.entrySet()) {
+                    ScriptableObject.putProperty(scope, entry.getKey(), Context.javaToJS(entry.getValue(), scope));
+                }
+                Object result = script.exec(context, scope);
+                return result instanceof Undefined ? null : result;
+            } catch (RhinoException e) {
+                throw toScriptException(e);
+            }
+        }
+
+        @Override
+        public ScriptEngine getEngine() {
+            return engine;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ ******************************************************************************/
+package org.apache.sling.scripting.sightly.js.impl.use;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+
+/**
+ * Caches the outcome of the {@link DependencyResolver}'s script lookups, mapping a dependency, as seen from a calling script and for
+ * a given request resource type, to the path of the script that was resolved. Since the outcome of a lookup depends on the resource
+ * type hierarchy, the whole cache is invalidated whenever a resource is changed under the search paths.
+ */
+@Component(
+        service = {DependencyResolutionCache.class, ResourceChangeListener.class},
+        property = {
+                ResourceChangeListener.PATHS + "=.",
+                ResourceChangeListener.CHANGES + "=ADDED",
+                ResourceChangeListener.CHANGES + "=CHANGED",
+                ResourceChangeListener.CHANGES + "=REMOVED"
+        }
+)
+@Designate(
+        ocd = DependencyResolutionCache.Configuration.class
+)
+public class DependencyResolutionCache implements ResourceChangeListener {
+
+    @ObjectClassDefinition(
+            name = "Apache Sling Scripting HTL JavaScript Use-API Dependency Resolution Cache",
+            description = "Caches the paths of the scripts resolved for the dependencies of JavaScript Use-API scripts"
+    )
+    @interface Configuration {
+
+        @AttributeDefinition(
+                name = "Cache Size",
+                description = "The maximum number of resolved dependencies kept in the cache. When the limit is reached the cache is " +
+                        "cleared. A value smaller than 1 disables the cache."
+        )
+        int cache_size() default 5000;
+
+    }
+
+    private final Map<Key, String> resolvedPaths = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+    private volatile int maxSize;
+
+    @Activate
+    protected void activate(Configuration configuration) {
+        maxSize = configuration.cache_size();
+        invalidate();
+    }
+
+    @Override
+    public void onChange(@NotNull List<ResourceChange> changes) {
+        invalidate();
+    }
+
+    /**
+     * Returns the current generation of the cache. The generation is incremented every time the cache is invalidated and has to be
+     * provided when {@link #put(Key, long, String) storing} a resolution, so that lookups which started before an invalidation don't
+     * end up stored in the cache.
+     *
+     * @return the current generation
+     */
+    long getGeneration() {
+        return generation.get();
+    }
+
+    @Nullable
+    String get(@NotNull Key key) {
+        return maxSize > 0 ? resolvedPaths.get(key) : null;
+    }
+
+    void put(@NotNull Key key, long generation, @NotNull String scriptPath) {
+        if (maxSize < 1) {
+            return;
+        }
+        if (resolvedPaths.size() >= maxSize) {
+            resolvedPaths.clear();
+        }
+        resolvedPaths.put(key, scriptPath);
+        if (generation != this.generation.get()) {
+            // an invalidation happened while the dependency was being resolved
+            resolvedPaths.remove(key);
+        }
+    }
+
+    void remove(@NotNull Key key) {
+        resolvedPaths.remove(key);
+    }
+
+    private void invalidate() {
+        generation.incrementAndGet();
+        resolvedPaths.clear();
+    }
+
+    static final class Key {
+
+        private final String dependency;
+        private final String caller;
+        private final String resourceType;
+        private final int hashCode;
+
+        Key(@NotNull String dependency, @Nullable String caller, @Nullable String resourceType) {
+            this.dependency = dependency;
+            this.caller = caller;
+            this.resourceType = resourceType;
+            this.hashCode = Objects.hash(dependency, caller, resourceType);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return dependency.equals(other.dependency) && Objects.equals(caller, other.caller) &&
+                    Objects.equals(resourceType, other.resourceType);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
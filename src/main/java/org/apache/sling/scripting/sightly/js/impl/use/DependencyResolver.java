@@ -19,15 +19,9 @@
 
 package org.apache.sling.scripting.sightly.js.impl.use;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.StringReader;
-import java.nio.charset.StandardCharsets;
-
 import javax.script.Bindings;
 import javax.script.ScriptEngine;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.resource.Resource;
@@ -47,80 +41,102 @@ import org.jetbrains.annotations.Nullable;
 public class DependencyResolver {
 
     private final ResourceResolver scriptingResourceResolver;
+    private final DependencyResolutionCache resolutionCache;
 
     public DependencyResolver(@NotNull ResourceResolver scriptingResourceResolver) {
+        this(scriptingResourceResolver, null);
+    }
+
+    public DependencyResolver(@NotNull ResourceResolver scriptingResourceResolver, @Nullable DependencyResolutionCache resolutionCache) {
         this.scriptingResourceResolver = scriptingResourceResolver;
+        this.resolutionCache = resolutionCache;
     }
 
     public @Nullable ScriptNameAwareReader resolve(Bindings bindings, String dependency) {
+        return Utils.readScript(resolveScript(bindings, dependency));
+    }
+
+    /**
+     * Locates the resource of a script dependency, without reading its content.
+     *
+     * @param bindings   the bindings of the calling script
+     * @param dependency the dependency identifier
+     * @return the script resource
+     * @throws SightlyException if the dependency is not a JS script or if it cannot be found
+     */
+    public @NotNull Resource resolveScript(Bindings bindings, String dependency) {
         if (!Utils.isJsScript(dependency)) {
             throw new SightlyException("Only JS scripts are allowed as dependencies. Invalid dependency: " + dependency);
         }
-        ScriptNameAwareReader reader = null;
-        IOException ioException = null;
-        try {
-            // attempt to retrieve the dependency directly (as an absolute path or relative to the search paths)
-            Resource scriptResource = scriptingResourceResolver.getResource(dependency);
-            Resource caller = getCaller(bindings);
-            if (caller != null) {
-                Resource callerType = caller.getParent();
-                if (scriptResource == null && callerType != null) {
-                    SlingHttpServletRequest request = (SlingHttpServletRequest) bindings.get(SlingBindings.REQUEST);
-                    String driverType = request.getResource().getResourceType();
-                    Resource driver = resolveResource(driverType);
-                    if (driver != null) {
-                        Resource hierarchyResource = getHierarchyResource(callerType, driver);
-                        while (hierarchyResource != null && scriptResource == null) {
-                            if (dependency.startsWith("..")) {
-                                // relative path
-                                String absolutePath = ResourceUtil.normalize(hierarchyResource.getPath() + "/" + dependency);
-                                if (StringUtils.isNotEmpty(absolutePath)) {
-                                    scriptResource = resolveResource(absolutePath);
-                                }
-                            } else {
-                                scriptResource = hierarchyResource.getChild(dependency);
-                            }
-                            if (scriptResource == null) {
-                                String nextType = hierarchyResource.getResourceSuperType();
-                                if (nextType != null) {
-                                    hierarchyResource = resolveResource(nextType);
-                                } else {
-                                    hierarchyResource = null;
-                                }
-                            }
-                        }
-                    }
-                    // cannot find a dependency relative to the resource type; locate it solely based on the caller
-                    if (scriptResource == null) {
+        if (resolutionCache == null) {
+            return locateScript(bindings, dependency);
+        }
+        DependencyResolutionCache.Key key = new DependencyResolutionCache.Key(dependency, getCallerName(bindings),
+                getRequestResourceType(bindings));
+        String scriptPath = resolutionCache.get(key);
+        if (scriptPath != null) {
+            Resource scriptResource = scriptingResourceResolver.getResource(scriptPath);
+            if (scriptResource != null) {
+                return scriptResource;
+            }
+            resolutionCache.remove(key);
+        }
+        long generation = resolutionCache.getGeneration();
+        Resource scriptResource = locateScript(bindings, dependency);
+        resolutionCache.put(key, generation, scriptResource.getPath());
+        return scriptResource;
+    }
+
+    private @NotNull Resource locateScript(Bindings bindings, String dependency) {
+        // attempt to retrieve the dependency directly (as an absolute path or relative to the search paths)
+        Resource scriptResource = scriptingResourceResolver.getResource(dependency);
+        Resource caller = getCaller(bindings);
+        if (caller != null) {
+            Resource callerType = caller.getParent();
+            if (scriptResource == null && callerType != null) {
+                // outside of a request (e.g. when the factories are loaded in the background) there's no driver resource type
+                String driverType = getRequestResourceType(bindings);
+                Resource driver = driverType == null ? null : resolveResource(driverType);
+                if (driver != null) {
+                    Resource hierarchyResource = getHierarchyResource(callerType, driver);
+                    while (hierarchyResource != null && scriptResource == null) {
                         if (dependency.startsWith("..")) {
                             // relative path
-                            String absolutePath = ResourceUtil.normalize(caller.getPath() + "/" + dependency);
+                            String absolutePath = ResourceUtil.normalize(hierarchyResource.getPath() + "/" + dependency);
                             if (StringUtils.isNotEmpty(absolutePath)) {
                                 scriptResource = resolveResource(absolutePath);
                             }
                         } else {
-                            scriptResource = callerType.getChild(dependency);
+                            scriptResource = hierarchyResource.getChild(dependency);
+                        }
+                        if (scriptResource == null) {
+                            String nextType = hierarchyResource.getResourceSuperType();
+                            if (nextType != null) {
+                                hierarchyResource = resolveResource(nextType);
+                            } else {
+                                hierarchyResource = null;
+                            }
                         }
                     }
                 }
+                // cannot find a dependency relative to the resource type; locate it solely based on the caller
+                if (scriptResource == null) {
+                    if (dependency.startsWith("..")) {
+                        // relative path
+                        String absolutePath = ResourceUtil.normalize(caller.getPath() + "/" + dependency);
+                        if (StringUtils.isNotEmpty(absolutePath)) {
+                            scriptResource = resolveResource(absolutePath);
+                        }
+                    } else {
+                        scriptResource = callerType.getChild(dependency);
+                    }
+                }
             }
-            if (scriptResource == null) {
-                throw new SightlyException(String.format("Unable to load script dependency %s.", dependency));
-            }
-            InputStream scriptStream = scriptResource.adaptTo(InputStream.class);
-            if (scriptStream == null) {
-                throw new SightlyException(String.format("Unable to read script %s.", dependency));
-            }
-            reader = new ScriptNameAwareReader(new StringReader(IOUtils.toString(scriptStream, StandardCharsets.UTF_8)),
-                    scriptResource.getPath());
-            IOUtils.closeQuietly(scriptStream);
-        } catch (IOException e) {
-            ioException = e;
         }
-        if (ioException != null) {
-            throw new SightlyException(String.format("Unable to load script dependency %s.", dependency), ioException);
+        if (scriptResource == null) {
+            throw new SightlyException(String.format("Unable to load script dependency %s.", dependency));
         }
-        return reader;
+        return scriptResource;
     }
 
     private Resource resolveResource(String type) {
@@ -156,6 +172,25 @@ public class DependencyResolver {
         return caller;
     }
 
+    private String getCallerName(Bindings bindings) {
+        String callerName = (String) bindings.get(ScriptEngine.FILENAME);
+        if (StringUtils.isEmpty(callerName)) {
+            SlingScriptHelper scriptHelper = Utils.getHelper(bindings);
+            if (scriptHelper != null) {
+                callerName = scriptHelper.getScript().getScriptResource().getPath();
+            }
+        }
+        return callerName;
+    }
+
+    private String getRequestResourceType(Bindings bindings) {
+        SlingHttpServletRequest request = (SlingHttpServletRequest) bindings.get(SlingBindings.REQUEST);
+        if (request != null) {
+            return request.getResource().getResourceType();
+        }
+        return null;
+    }
+
     private Resource getHierarchyResource(@NotNull Resource caller, @NotNull Resource driver) {
         if (caller.getPath().equals(driver.getPath())) {
             return caller;
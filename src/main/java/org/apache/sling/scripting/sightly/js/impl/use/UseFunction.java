@@ -27,11 +27,9 @@ import java.util.Map;
 import javax.script.Bindings;
 import javax.script.ScriptEngine;
 
-import org.apache.sling.api.scripting.LazyBindings;
-import org.apache.sling.scripting.core.ScriptNameAwareReader;
-import org.apache.sling.scripting.sightly.SightlyException;
+import org.apache.sling.api.resource.Resource;
 import org.apache.sling.scripting.sightly.js.impl.JsEnvironment;
-import org.apache.sling.scripting.sightly.js.impl.Utils;
+import org.apache.sling.scripting.sightly.js.impl.LayeredBindings;
 import org.apache.sling.scripting.sightly.js.impl.async.AsyncContainer;
 import org.apache.sling.scripting.sightly.js.impl.loop.EventLoopInterop;
 import org.apache.sling.scripting.sightly.js.impl.rhino.JsUtils;
@@ -52,6 +50,7 @@ public class UseFunction extends BaseFunction {
     private final DependencyResolver dependencyResolver;
     private final Scriptable thisObj;
     private final Bindings globalBindings;
+    private boolean evaluating;
 
     public UseFunction(JsEnvironment jsEnvironment, DependencyResolver dependencyResolver, Bindings globalBindings, Bindings arguments) {
         this.jsEnvironment = jsEnvironment;
@@ -79,38 +78,54 @@ public class UseFunction extends BaseFunction {
     private Object use(List<String> depNames, final Function callback, final Context cx, final Scriptable scope) {
         final AsyncContainer asyncContainer = new AsyncContainer();
         if (depNames.isEmpty()) {
-            callImmediate(callback, asyncContainer, cx, scope);
-        } else {
-            final int[] counter = {depNames.size()};
-            final Object[] dependencies = new Object[depNames.size()];
-            for (int i = 0; i < depNames.size(); i++) {
-                final int dependencyPos = i;
-                String dependency = depNames.get(i);
-                ScriptNameAwareReader dependencyReader = dependencyResolver.resolve(globalBindings, dependency);
-                if (dependencyReader == null) {
-                    throw new SightlyException("Cannot locate script " + dependency);
-                }
-                Bindings bindings = new LazyBindings();
-                bindings.putAll(globalBindings);
-                bindings.put(ScriptEngine.FILENAME, dependencyReader.getScriptName());
-                jsEnvironment.runScript(dependencyReader, bindings, Utils.EMPTY_BINDINGS, arg -> {
-                    counter[0]--;
-                    dependencies[dependencyPos] = arg;
-                    if (counter[0] == 0) {
-                        Object result = JsUtils.callFn(callback, cx, scope, thisObj, dependencies);
-                        asyncContainer.complete(result);
-                    }
-                });
+            if (evaluating) {
+                // nothing to wait for: run the callback right away and return its value, without going through the event loop
+                return JsUtils.callFn(callback, cx, scope, thisObj, new Object[0]);
             }
+            // called from a callback, a timer or a promise reaction: keep the ordering guarantees of the event loop
+            EventLoopInterop.schedule(cx, () -> callFn(callback, asyncContainer, cx, scope, new Object[0]));
+            return asyncContainer;
+        }
+        final int[] counter = {depNames.size()};
+        final Object[] dependencies = new Object[depNames.size()];
+        final String caller = (String) globalBindings.get(ScriptEngine.FILENAME);
+        for (int i = 0; i < depNames.size(); i++) {
+            final int dependencyPos = i;
+            String dependency = depNames.get(i);
+            Resource dependencyResource = dependencyResolver.resolveScript(globalBindings, dependency);
+            Bindings bindings = new LayeredBindings(globalBindings);
+            bindings.put(ScriptEngine.FILENAME, dependencyResource.getPath());
+            jsEnvironment.runModule(dependencyResource, bindings, caller).addListener(arg -> {
+                counter[0]--;
+                dependencies[dependencyPos] = arg;
+                if (counter[0] == 0) {
+                    callFn(callback, asyncContainer, cx, scope, dependencies);
+                }
+            }, asyncContainer.createFailureCallback());
         }
         return asyncContainer;
     }
 
-    private void callImmediate(final Function callback, final AsyncContainer asyncContainer, final Context cx, final Scriptable scope) {
-        EventLoopInterop.schedule(cx, () -> {
-            Object value = JsUtils.callFn(callback, cx, scope, thisObj, new Object[0]);
-            asyncContainer.complete(value);
-        });
+    /**
+     * Marks whether the script which received this function is being evaluated. The callbacks of the {@code use} calls without
+     * dependencies made during the evaluation are run synchronously and {@code use} returns their value; the ones made later, e.g.
+     * from a dependency callback or a timer, are scheduled on the event loop and {@code use} returns an {@link AsyncContainer}.
+     *
+     * @param evaluating {@code true} while the script is being evaluated
+     */
+    public void setEvaluating(boolean evaluating) {
+        this.evaluating = evaluating;
+    }
+
+    private void callFn(Function callback, AsyncContainer asyncContainer, Context cx, Scriptable scope, Object[] arguments) {
+        Object value;
+        try {
+            value = JsUtils.callFn(callback, cx, scope, thisObj, arguments);
+        } catch (RuntimeException e) {
+            asyncContainer.fail(e);
+            throw e;
+        }
+        asyncContainer.complete(value);
     }
 
     private Function decodeCallback(Object obj) {
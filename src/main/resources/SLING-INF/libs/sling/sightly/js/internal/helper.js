@@ -22,6 +22,15 @@
  */
 use(function() {
 
+    function defineValue(obj, key, value) {
+        Object.defineProperty(obj, key, {
+            value: value,
+            writable: true,
+            enumerable: true,
+            configurable: true
+        });
+    }
+
     return {
         /**
          * 
@@ -38,6 +47,41 @@ use(function() {
                 props[entry.getKey()] = entry.getValue();
             }
             return props;
+        },
+
+        /**
+         *
+         * Convert a java Map instance to a JS object which reads the values from the map lazily. The map's keys
+         * are not enumerated upfront and a value is read from the map only when its property is accessed for the
+         * first time.
+         * @param  {object} javaMap - instance of java.lang.Map
+         * @return {{}} the resulting object
+         * @ignore
+         */
+        mapToLazyObject: function (javaMap) {
+            return __lazyMap(javaMap);
+        },
+
+        /**
+         * Define a property which is computed by the provided function when it's accessed for the first time.
+         * @param {object} obj - the object on which the property is defined
+         * @param {string} key - the name of the property
+         * @param {function} fn - the function computing the value of the property
+         * @ignore
+         */
+        defineComputedProperty: function (obj, key, fn) {
+            Object.defineProperty(obj, key, {
+                enumerable: true,
+                configurable: true,
+                get: function () {
+                    var value = fn();
+                    defineValue(obj, key, value);
+                    return value;
+                },
+                set: function (value) {
+                    defineValue(obj, key, value);
+                }
+            });
         }
     };
 });
\ No newline at end of file
@@ -16,21 +16,28 @@
  * specific language governing permissions and limitations
  * under the License.
  ******************************************************************************/
-use(function(_) {
+use(['helper.js'], function(helper) {
+
+    function convertValues(paramValues) {
+        if (paramValues) {
+            paramValues = paramValues.map(function (param) {
+                return param.getString();
+            });
+        }
+        return paramValues;
+    }
+
+    function defineParam(result, paramMap, paramName) {
+        helper.defineComputedProperty(result, paramName, function () {
+            return convertValues(paramMap.getValues(paramName));
+        });
+    }
 
     function convertParams(paramMap) {
         var result = {};
-        var it = paramMap.entrySet().iterator();
+        var it = paramMap.keySet().iterator();
         while (it.hasNext()) {
-            var entry = it.next();
-            var paramName = entry.getKey();
-            var paramValues = entry.getValue();
-            if (paramValues) {
-                paramValues = paramValues.map(function (param) {
-                    return param.getString();
-                });
-            }
-            result[paramName] = paramValues;
+            defineParam(result, paramMap, String(it.next()));
         }
         return result;
     }
@@ -120,12 +127,15 @@ use(function(_) {
         this.nativeRequest = nativeRequest;
 
         /**
-         * A map of the parameters in this request
+         * A map of the parameters in this request; the values of a parameter are converted when the parameter is
+         * accessed for the first time
          * @name Request~parameters
          * @type {object.<string, string>}
          * @member
          */
-        this.parameters = convertParams(nativeRequest.getRequestParameterMap());
+        helper.defineComputedProperty(this, 'parameters', function () {
+            return convertParams(nativeRequest.getRequestParameterMap());
+        });
 
         /**
          * The path info associated with this request
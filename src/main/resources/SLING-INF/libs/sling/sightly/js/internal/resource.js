@@ -29,7 +29,7 @@ use(['helper.js'], function(helper) {
 
     function getProperties(nativeResource) {
         var valueMap = nativeResource.adaptTo(Packages.org.apache.sling.api.resource.ValueMap);
-        return (valueMap) ? helper.mapToObject(valueMap) : {};
+        return (valueMap) ? helper.mapToLazyObject(valueMap) : {};
     }
 
     /**
@@ -48,12 +48,14 @@ use(['helper.js'], function(helper) {
         this.path = nativeResource.getPath();
 
         /**
-         * The map of properties for this object
+         * The map of properties for this object; the properties are read when they are accessed for the first time
          * @name Resource~properties
          * @member
          * @type {object.<string, object>}
          */
-        this.properties = getProperties(nativeResource);
+        helper.defineComputedProperty(this, 'properties', function () {
+            return getProperties(nativeResource);
+        });
 
         /** @private */
         this.nativeResource = nativeResource;
@@ -98,6 +100,32 @@ use(['helper.js'], function(helper) {
             return this._promise.success(children);
         },
 
+        /**
+         * Get a page of the children of this resource. Only the children that belong to the requested page are
+         * wrapped in Resource objects, which makes this method suitable for resources with many children.
+         * @param {object} [options] the paging options
+         * @param {number} [options.offset=0] the number of children to skip
+         * @param {number} [options.limit] the maximum number of children to return; if missing, all the children
+         * following the offset are returned
+         * @return {promise.<array.<Resource>>} a promise with the array of children resources from the requested page
+         */
+        listChildren: function(options) {
+            var offset = (options && options.offset > 0) ? Math.floor(options.offset) : 0;
+            var limit = (options && options.limit >= 0) ? Math.floor(options.limit) : -1;
+            var resolver = this.nativeResource.getResourceResolver();
+            var children = [];
+            var it = resolver.listChildren(this.nativeResource);
+            var promise = this._promise;
+            while (offset > 0 && it.hasNext()) {
+                it.next();
+                offset--;
+            }
+            while ((limit < 0 || children.length < limit) && it.hasNext()) {
+                children.push(new Resource(it.next(), promise));
+            }
+            return this._promise.success(children);
+        },
+
         /**
          * Returns the name of this resource. The name of a resource is the last segment of the path.
          * @returns {string} the name of this resource
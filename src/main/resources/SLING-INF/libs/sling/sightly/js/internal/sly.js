@@ -16,16 +16,14 @@
  * specific language governing permissions and limitations
  * under the License.
  ******************************************************************************/
-use(['resource.js', 'request.js', 'promise.js'], function(Resource, Request, promiseFactory) {
+use(['resource.js', 'request.js', 'promise.js', 'helper.js'], function(Resource, Request, promiseFactory, helper) {
 
     return function(bindings, Q) {
         var promiseLib = promiseFactory(Q);
         var slyResource;
-        var slyProperties;
         var slyRequest;
         if (bindings.containsKey('resource')) {
             slyResource = new Resource(bindings.get('resource'), promiseLib);
-            slyProperties = slyResource.properties;
         }
         if (bindings.containsKey('request')) {
             slyRequest = new Request(bindings.get('request'));
@@ -34,7 +32,7 @@ use(['resource.js', 'request.js', 'promise.js'], function(Resource, Request, pro
         /**
          * @namespace sly
          */
-        return /** @lends sly */ {
+        var sly = /** @lends sly */ {
 
             /**
              * The current resource of the request
@@ -42,18 +40,23 @@ use(['resource.js', 'request.js', 'promise.js'], function(Resource, Request, pro
              */
             resource: slyResource,
 
-            /**
-             * The properties of the current resource
-             * @type {Object.<string, Object>}
-             */
-            properties: slyResource.properties,
-
             /**
              * The request object
              * @type {Request}
              */
             request: slyRequest
         };
+
+        /**
+         * The properties of the current resource; they are read when they are accessed for the first time
+         * @name sly.properties
+         * @type {Object.<string, Object>}
+         */
+        helper.defineComputedProperty(sly, 'properties', function () {
+            return slyResource ? slyResource.properties : undefined;
+        });
+
+        return sly;
     }
 
 });
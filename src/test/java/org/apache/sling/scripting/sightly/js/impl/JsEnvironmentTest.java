@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ ******************************************************************************/
+package org.apache.sling.scripting.sightly.js.impl;
+
+import java.util.Collections;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.scripting.LazyBindings;
+import org.apache.sling.scripting.sightly.SightlyException;
+import org.apache.sling.scripting.sightly.js.impl.async.AsyncContainer;
+import org.apache.sling.scripting.sightly.js.impl.cache.CompiledScriptCache;
+import org.apache.sling.scripting.sightly.js.impl.use.DependencyResolver;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class JsEnvironmentTest {
+
+    private ResourceResolver resolver;
+    private JsEnvironment environment;
+
+    @Before
+    public void setUp() {
+        resolver = TestResources.createResolver();
+        environment = new JsEnvironment(new TestScriptEngine(), new DependencyResolver(resolver), new CompiledScriptCache(0));
+        environment.initialize();
+    }
+
+    @After
+    public void tearDown() {
+        environment.cleanup();
+    }
+
+    @Test
+    public void testSharedDependency() {
+        AsyncContainer container = run("/apps/test/shared/main.js");
+        assertTrue(container.isCompleted());
+        assertEquals(3, ((Number) container.getResult()).intValue());
+    }
+
+    @Test
+    public void testUseWithoutDependenciesDuringEvaluation() {
+        AsyncContainer container = run("/apps/test/use/main.js");
+        assertTrue(container.isCompleted());
+        // the callback runs synchronously and use returns its value
+        assertEquals("callback", container.getResult());
+    }
+
+    @Test
+    public void testUseWithoutDependenciesFromDependencyCallback() {
+        AsyncContainer container = run("/apps/test/use/dependency.js");
+        assertTrue(container.isCompleted());
+        assertEquals(Collections.singletonList("dependency callback"), container.getResult());
+    }
+
+    @Test
+    public void testUseWithoutDependenciesFromTimer() {
+        AsyncContainer container = run("/apps/test/use/timer.js");
+        assertTrue(container.isCompleted());
+        assertEquals(Collections.singletonList("timer"), container.getResult());
+    }
+
+    @Test
+    public void testCircularDependency() {
+        AsyncContainer container = run("/apps/test/circular/a.js");
+        assertTrue(container.isFailed());
+        assertTrue(container.getError() instanceof SightlyException);
+        assertTrue(container.getError().getMessage().contains("Circular dependency"));
+    }
+
+    private AsyncContainer run(String path) {
+        Resource script = resolver.getResource(path);
+        return environment.runScript(script, new LazyBindings(), Utils.EMPTY_BINDINGS);
+    }
+}
@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ ******************************************************************************/
+package org.apache.sling.scripting.sightly.js.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.script.Bindings;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LayeredBindingsTest {
+
+    @Test
+    public void testOverrides() {
+        Map<String, Object> parent = new HashMap<>();
+        parent.put("a", 1);
+        parent.put("b", 2);
+        Bindings bindings = new LayeredBindings(parent);
+
+        assertEquals(2, bindings.put("b", 3));
+        assertEquals(null, bindings.put("c", 4));
+        assertEquals(3, bindings.get("b"));
+        assertEquals(4, bindings.get("c"));
+        assertEquals(3, bindings.size());
+        assertEquals(3, bindings.entrySet().size());
+
+        assertEquals(1, bindings.remove("a"));
+        assertEquals(4, bindings.remove("c"));
+        assertNull(bindings.remove("d"));
+        assertFalse(bindings.containsKey("a"));
+        assertEquals(1, bindings.size());
+        assertEquals(1, bindings.entrySet().size());
+
+        // the parent is never modified
+        assertEquals(2, parent.size());
+        assertEquals(1, parent.get("a"));
+        assertEquals(2, parent.get("b"));
+    }
+
+    @Test
+    public void testClear() {
+        Map<String, Object> parent = new HashMap<>();
+        parent.put("a", 1);
+        Bindings bindings = new LayeredBindings(parent);
+        bindings.put("b", 2);
+        bindings.clear();
+
+        assertTrue(bindings.isEmpty());
+        assertFalse(bindings.entrySet().iterator().hasNext());
+        bindings.put("a", 3);
+        assertEquals(1, bindings.size());
+        assertEquals(3, bindings.get("a"));
+        assertEquals(1, parent.get("a"));
+    }
+
+    @Test
+    public void testNestedLayers() {
+        Map<String, Object> parent = new HashMap<>();
+        parent.put("a", 1);
+        Bindings first = new LayeredBindings(parent);
+        first.put("b", 2);
+        Bindings second = new LayeredBindings(first);
+        second.put("c", 3);
+        second.remove("a");
+
+        assertEquals(2, second.size());
+        assertEquals(2, first.size());
+        assertEquals(2, second.get("b"));
+        assertFalse(first.containsKey("c"));
+        assertTrue(first.containsKey("a"));
+    }
+
+    @Test
+    public void testParentChanges() {
+        Map<String, Object> parent = new HashMap<>();
+        parent.put("a", 1);
+        parent.put("b", 2);
+        Bindings bindings = new LayeredBindings(parent);
+        bindings.put("c", 3);
+        bindings.remove("b");
+        bindings.remove("d");
+
+        parent.put("c", 4);
+        parent.put("d", 5);
+        parent.put("e", 6);
+        parent.remove("b");
+        parent.remove("a");
+
+        // c is overridden and d is removed by the layer, while e is read from the parent
+        assertEquals(3, bindings.get("c"));
+        assertFalse(bindings.containsKey("d"));
+        assertEquals(6, bindings.get("e"));
+        assertFalse(bindings.containsKey("a"));
+        assertEquals(2, bindings.size());
+        assertEquals(2, bindings.entrySet().size());
+        Map<String, Object> expected = new HashMap<>();
+        expected.put("c", 3);
+        expected.put("e", 6);
+        assertEquals(expected, new HashMap<>(bindings));
+    }
+}
@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ ******************************************************************************/
+package org.apache.sling.scripting.sightly.js.impl;
+
+import java.io.InputStream;
+import java.net.URL;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceMetadata;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceUtil;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Provides a resource resolver serving the scripts bundled in {@code SLING-INF} from the class path, as the bundle resource provider
+ * does at runtime.
+ */
+public final class TestResources {
+
+    private static final String ROOT = "/SLING-INF";
+
+    private TestResources() {
+    }
+
+    /**
+     * Creates a resource resolver serving the bundled scripts.
+     *
+     * @return the resource resolver
+     */
+    public static ResourceResolver createResolver() {
+        final ResourceResolver resolver = mock(ResourceResolver.class);
+        when(resolver.getSearchPath()).thenReturn(new String[] {"/apps/", "/libs/"});
+        when(resolver.getResource(anyString())).thenAnswer(invocation -> getResource(resolver, invocation.getArgument(0)));
+        return resolver;
+    }
+
+    private static Resource getResource(final ResourceResolver resolver, String path) {
+        final String normalized = ResourceUtil.normalize(path);
+        if (normalized == null || !normalized.startsWith("/")) {
+            return null;
+        }
+        final URL url = TestResources.class.getResource(ROOT + normalized);
+        if (url == null) {
+            return null;
+        }
+        Resource resource = mock(Resource.class);
+        when(resource.getPath()).thenReturn(normalized);
+        when(resource.getName()).thenReturn(ResourceUtil.getName(normalized));
+        when(resource.getResourceResolver()).thenReturn(resolver);
+        when(resource.getResourceMetadata()).thenReturn(new ResourceMetadata());
+        when(resource.getParent()).thenAnswer(invocation -> "/".equals(normalized) ? null :
+                getResource(resolver, ResourceUtil.getParent(normalized)));
+        when(resource.getChild(anyString())).thenAnswer(invocation -> getResource(resolver, normalized + "/" + invocation.getArgument(0)));
+        when(resource.adaptTo(InputStream.class)).thenAnswer(invocation -> url.openStream());
+        return resource;
+    }
+}
@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ ******************************************************************************/
+package org.apache.sling.scripting.sightly.js.impl;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Map;
+
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+
+import org.apache.sling.scripting.core.ScriptNameAwareReader;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.RhinoException;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+import org.mozilla.javascript.Undefined;
+
+/**
+ * Minimal JavaScript engine for tests, which compiles scripts with Rhino and evaluates them in a new top-level scope holding the
+ * script's bindings.
+ */
+public class TestScriptEngine extends AbstractScriptEngine implements Compilable {
+
+    @Override
+    public CompiledScript compile(String script) throws ScriptException {
+        return compile(new StringReader(script));
+    }
+
+    @Override
+    public CompiledScript compile(Reader reader) throws ScriptException {
+        String scriptName = reader instanceof ScriptNameAwareReader ? ((ScriptNameAwareReader) reader).getScriptName() : "script";
+        Context context = Context.enter();
+        try {
+            final Script script = context.compileReader(reader, scriptName, 1, null);
+            return new CompiledScript() {
+                @Override
+                public Object eval(ScriptContext scriptContext) throws ScriptException {
+                    return TestScriptEngine.this.eval(script, scriptContext);
+                }
+
+                @Override
+                public ScriptEngine getEngine() {
+                    return TestScriptEngine.this;
+                }
+            };
+        } catch (IOException | RhinoException e) {
+            throw toScriptException(e);
+        } finally {
+            Context.exit();
+        }
+    }
+
+    @Override
+    public Object eval(String script, ScriptContext scriptContext) throws ScriptException {
+        return compile(script).eval(scriptContext);
+    }
+
+    @Override
+    public Object eval(Reader reader, ScriptContext scriptContext) throws ScriptException {
+        return compile(reader).eval(scriptContext);
+    }
+
+    @Override
+    public Bindings createBindings() {
+        return new SimpleBindings();
+    }
+
+    @Override
+    public ScriptEngineFactory getFactory() {
+        return null;
+    }
+
+    private Object eval(Script script, ScriptContext scriptContext) throws ScriptException {
+        Context context = Context.enter();
+        try {
+            Scriptable scope = context.initStandardObjects();
+            for (Map.Entry<String, Object> entry : scriptContext.getBindings(ScriptContext.ENGINE_SCOPE).entrySet()) {
+                ScriptableObject.putProperty(scope, entry.getKey(), Context.javaToJS(entry.getValue(), scope));
+            }
+            Object result = script.exec(context, scope);
+            return result instanceof Undefined ? null : result;
+        } catch (RhinoException e) {
+            throw toScriptException(e);
+        } finally {
+            Context.exit();
+        }
+    }
+
+    private static ScriptException toScriptException(Exception e) {
+        ScriptException scriptException = new ScriptException(e.getMessage());
+        scriptException.initCause(e);
+        return scriptException;
+    }
+}
@@ -0,0 +1,211 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ ******************************************************************************/
+package org.apache.sling.scripting.sightly.js.impl.async;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AsyncContainerTest {
+
+    @Test
+    public void testComplete() {
+        AsyncContainer container = new AsyncContainer();
+        assertFalse(container.isDone());
+        container.complete("value");
+
+        assertTrue(container.isDone());
+        assertTrue(container.isCompleted());
+        assertFalse(container.isFailed());
+        assertEquals("value", container.getResult());
+        assertNull(container.getError());
+    }
+
+    @Test
+    public void testCompleteWithNull() {
+        AsyncContainer container = new AsyncContainer();
+        container.complete(null);
+
+        assertTrue(container.isCompleted());
+        assertNull(container.getResult());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCompleteTwice() {
+        AsyncContainer container = new AsyncContainer();
+        container.complete("first");
+        container.complete("second");
+    }
+
+    @Test
+    public void testFail() {
+        AsyncContainer container = new AsyncContainer();
+        RuntimeException error = new RuntimeException();
+        container.fail(error);
+        // later failures are ignored
+        container.fail(new RuntimeException());
+
+        assertTrue(container.isDone());
+        assertTrue(container.isFailed());
+        assertFalse(container.isCompleted());
+        assertSame(error, container.getError());
+        assertNull(container.getResult());
+    }
+
+    @Test
+    public void testFailAfterComplete() {
+        AsyncContainer container = new AsyncContainer();
+        container.complete("value");
+        container.fail(new RuntimeException());
+
+        assertTrue(container.isCompleted());
+        assertEquals("value", container.getResult());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCompleteAfterFail() {
+        AsyncContainer container = new AsyncContainer();
+        container.fail(new RuntimeException());
+        container.complete("value");
+    }
+
+    @Test
+    public void testListenersNotifiedInRegistrationOrder() {
+        AsyncContainer container = new AsyncContainer();
+        List<String> calls = new ArrayList<>();
+        container.addListener(value -> calls.add("first:" + value));
+        container.addListener(value -> calls.add("second:" + value), error -> calls.add("error"));
+        container.addListener(value -> calls.add("third:" + value));
+        assertTrue(calls.isEmpty());
+
+        container.complete("value");
+        assertArrayEquals(new Object[] {"first:value", "second:value", "third:value"}, calls.toArray());
+
+        // listeners added after the completion are notified immediately
+        container.addListener(value -> calls.add("late:" + value));
+        assertEquals("late:value", calls.get(3));
+    }
+
+    @Test
+    public void testFailureListeners() {
+        AsyncContainer container = new AsyncContainer();
+        RuntimeException error = new RuntimeException();
+        List<Object> failures = new ArrayList<>();
+        container.addListener(value -> fail("The success callback should not be called."), failures::add);
+        container.addListener(value -> fail("The success callback should not be called."));
+        container.fail(error);
+        container.addListener(value -> fail("The success callback should not be called."), failures::add);
+
+        assertEquals(2, failures.size());
+        assertSame(error, failures.get(0));
+        assertSame(error, failures.get(1));
+    }
+
+    @Test
+    public void testFailureCallback() {
+        AsyncContainer container = new AsyncContainer();
+        container.createFailureCallback().invoke("reason");
+
+        assertTrue(container.isFailed());
+        assertTrue(container.getError() instanceof IllegalStateException);
+        assertEquals("reason", container.getError().getMessage());
+    }
+
+    @Test
+    public void testAllListenersNotifiedWhenOneThrows() {
+        AsyncContainer container = new AsyncContainer();
+        RuntimeException first = new RuntimeException("first");
+        RuntimeException second = new RuntimeException("second");
+        AtomicInteger notified = new AtomicInteger();
+        container.addListener(value -> {
+            notified.incrementAndGet();
+            throw first;
+        });
+        container.addListener(value -> {
+            notified.incrementAndGet();
+            throw second;
+        });
+        container.addListener(value -> notified.incrementAndGet());
+        try {
+            container.complete("value");
+            fail("Expected the first listener's exception.");
+        } catch (RuntimeException e) {
+            assertSame(first, e);
+            assertArrayEquals(new Throwable[] {second}, e.getSuppressed());
+        }
+        assertEquals(3, notified.get());
+        assertTrue(container.isCompleted());
+    }
+
+    @Test
+    public void testConcurrentCompletion() throws InterruptedException {
+        int threads = 8;
+        for (int round = 0; round < 100; round++) {
+            AsyncContainer container = new AsyncContainer();
+            AtomicInteger winners = new AtomicInteger();
+            AtomicInteger notifications = new AtomicInteger();
+            CountDownLatch start = new CountDownLatch(1);
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                for (int i = 0; i < threads; i++) {
+                    final int value = i;
+                    executor.execute(() -> {
+                        try {
+                            start.await();
+                            container.addListener(result -> notifications.incrementAndGet());
+                            if (value % 2 == 0) {
+                                container.complete(value);
+                                winners.incrementAndGet();
+                            } else {
+                                container.fail(new RuntimeException());
+                            }
+                        } catch (IllegalStateException e) {
+                            // another thread completed the container first
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    });
+                }
+                start.countDown();
+            } finally {
+                executor.shutdown();
+                assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+            }
+            assertTrue(container.isDone());
+            assertTrue(winners.get() <= 1);
+            assertEquals(container.isCompleted() ? 1 : 0, winners.get());
+            // every listener is notified exactly once, whether it was added before or after the completion
+            assertEquals(container.isCompleted() ? threads : 0, notifications.get());
+        }
+    }
+}
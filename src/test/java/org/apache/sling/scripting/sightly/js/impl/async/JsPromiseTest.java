@@ -0,0 +1,72 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ ******************************************************************************/
+package org.apache.sling.scripting.sightly.js.impl.async;
+
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.EvaluatorException;
+import org.mozilla.javascript.Function;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JsPromiseTest {
+
+    @Test
+    public void testReactionIsCalledWithTheGlobalObject() {
+        ScriptableObject scope;
+        Function reaction;
+        Context context = Context.enter();
+        try {
+            scope = context.initStandardObjects();
+            reaction = (Function) context.evaluateString(scope, "(function () { return this; })", "reaction.js", 1, null);
+        } finally {
+            Context.exit();
+        }
+
+        // without an entered context, the reaction runs synchronously
+        JsPromise next = JsPromise.resolved("value").then(reaction, null);
+
+        assertTrue(next.isFulfilled());
+        assertSame(scope, next.getValue());
+    }
+
+    @Test
+    public void testPromiseLibraryFunctionsAreSealed() {
+        Context context = Context.enter();
+        try {
+            ScriptableObject scope = context.initStandardObjects();
+            Scriptable resolve = (Scriptable) ScriptableObject.getProperty(PromiseLibrary.INSTANCE, "resolve");
+            Scriptable then = (Scriptable) ScriptableObject.getProperty(JsPromise.resolved("value"), "then");
+            for (Scriptable function : new Scriptable[] {PromiseLibrary.INSTANCE, resolve, then}) {
+                try {
+                    ScriptableObject.putProperty(function, "leaked", scope);
+                    fail("Expected the shared function to be sealed.");
+                } catch (EvaluatorException e) {
+                    // expected
+                }
+            }
+        } finally {
+            Context.exit();
+        }
+    }
+}
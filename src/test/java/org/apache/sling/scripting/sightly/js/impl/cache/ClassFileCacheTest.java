@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ ******************************************************************************/
+package org.apache.sling.scripting.sightly.js.impl.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ClassFileCacheTest {
+
+    private static final String PATH = "/apps/test/script.js";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+    private ClassFileCache cache;
+
+    @Before
+    public void setUp() {
+        // the directory is created by the first store
+        directory = new File(folder.getRoot(), "classes");
+        cache = new ClassFileCache(directory);
+    }
+
+    @Test
+    public void testStoreAndLoad() {
+        Object[] classFiles = {"script0", new byte[] {1, 2, 3}, "script1", new byte[0]};
+        cache.store(PATH, "hash", classFiles);
+
+        Object[] loaded = cache.load(PATH, "hash");
+        assertNotNull(loaded);
+        assertEquals(4, loaded.length);
+        assertEquals("script0", loaded[0]);
+        assertArrayEquals(new byte[] {1, 2, 3}, (byte[]) loaded[1]);
+        assertEquals("script1", loaded[2]);
+        assertArrayEquals(new byte[0], (byte[]) loaded[3]);
+    }
+
+    @Test
+    public void testMissingEntry() {
+        assertNull(cache.load(PATH, "hash"));
+    }
+
+    @Test
+    public void testContentHashMismatch() {
+        cache.store(PATH, "hash", new Object[] {"script", new byte[] {1}});
+
+        assertNull(cache.load(PATH, "other"));
+    }
+
+    @Test
+    public void testStoreReplacesEntryAtomically() {
+        cache.store(PATH, "first", new Object[] {"script", new byte[] {1}});
+        cache.store(PATH, "second", new Object[] {"script", new byte[] {2}});
+
+        assertNull(cache.load(PATH, "first"));
+        assertArrayEquals(new byte[] {2}, (byte[]) cache.load(PATH, "second")[1]);
+        // the temporary files are moved into place, never left behind
+        String[] files = directory.list();
+        assertNotNull(files);
+        assertEquals(1, files.length);
+        assertTrue(files[0].endsWith(".classes"));
+    }
+
+    @Test
+    public void testCorruptedEntry() throws IOException {
+        cache.store(PATH, "hash", new Object[] {"script", new byte[] {1, 2, 3}});
+        File[] files = directory.listFiles();
+        assertNotNull(files);
+        byte[] content = Files.readAllBytes(files[0].toPath());
+        // a truncated entry, e.g. written by a previous version without atomic moves
+        Files.write(files[0].toPath(), Arrays.copyOf(content, content.length - 2));
+
+        assertNull(cache.load(PATH, "hash"));
+    }
+
+    @Test
+    public void testRemove() {
+        cache.store(PATH, "hash", new Object[] {"script", new byte[] {1}});
+        cache.remove(PATH);
+
+        assertNull(cache.load(PATH, "hash"));
+        assertEquals(0, directory.list().length);
+    }
+
+    @Test
+    public void testUnwritableDirectory() throws IOException {
+        File file = folder.newFile("file");
+        ClassFileCache unwritable = new ClassFileCache(file);
+        unwritable.store(PATH, "hash", new Object[] {"script", new byte[] {1}});
+
+        assertNull(unwritable.load(PATH, "hash"));
+        assertFalse(new File(folder.getRoot(), "classes").exists());
+    }
+
+    @Test
+    public void testHash() {
+        assertEquals("e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855", ClassFileCache.hash(""));
+        assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad", ClassFileCache.hash("abc"));
+    }
+}
@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ ******************************************************************************/
+package org.apache.sling.scripting.sightly.js.impl.cache;
+
+import javax.script.CompiledScript;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+
+public class CompiledScriptCacheTest {
+
+    @Test
+    public void testLeastRecentlyUsedEviction() {
+        CompiledScriptCache cache = new CompiledScriptCache(2);
+        CompiledScript a = mock(CompiledScript.class);
+        CompiledScript b = mock(CompiledScript.class);
+        CompiledScript c = mock(CompiledScript.class);
+        cache.put("/a.js", 1, a);
+        cache.put("/b.js", 1, b);
+        // reading /a.js makes /b.js the least recently used script
+        assertSame(a, cache.get("/a.js", 1));
+        cache.put("/c.js", 1, c);
+
+        assertEquals(2, cache.getSize());
+        assertEquals(1, cache.getEvictions());
+        assertSame(a, cache.get("/a.js", 1));
+        assertNull(cache.get("/b.js", 1));
+        assertSame(c, cache.get("/c.js", 1));
+        assertEquals(3, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testLastModifiedInvalidation() {
+        CompiledScriptCache cache = new CompiledScriptCache(10);
+        CompiledScript original = mock(CompiledScript.class);
+        CompiledScript modified = mock(CompiledScript.class);
+        cache.put("/a.js", 1, original);
+
+        assertNull(cache.get("/a.js", 2));
+        cache.put("/a.js", 2, modified);
+        assertSame(modified, cache.get("/a.js", 2));
+        assertNull(cache.get("/a.js", 1));
+        assertEquals(1, cache.getSize());
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void testUnknownLastModified() {
+        CompiledScriptCache cache = new CompiledScriptCache(10);
+        cache.put("/a.js", -1, mock(CompiledScript.class));
+
+        assertEquals(0, cache.getSize());
+        assertNull(cache.get("/a.js", -1));
+        assertEquals(0, cache.getHits());
+        assertEquals(0, cache.getMisses());
+    }
+
+    @Test
+    public void testDisabled() {
+        CompiledScriptCache cache = new CompiledScriptCache(0);
+        cache.put("/a.js", 1, mock(CompiledScript.class));
+
+        assertFalse(cache.isEnabled());
+        assertEquals(0, cache.getSize());
+        assertNull(cache.get("/a.js", 1));
+        assertEquals(0, cache.getHits());
+        assertEquals(0, cache.getMisses());
+    }
+}
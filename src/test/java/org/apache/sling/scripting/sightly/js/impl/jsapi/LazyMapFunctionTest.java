@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ ******************************************************************************/
+package org.apache.sling.scripting.sightly.js.impl.jsapi;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class LazyMapFunctionTest {
+
+    private Context context;
+    private ScriptableObject scope;
+
+    @Before
+    public void setUp() {
+        context = Context.enter();
+        scope = context.initStandardObjects();
+        ScriptableObject.putProperty(scope, "__lazyMap", LazyMapFunction.INSTANCE);
+    }
+
+    @After
+    public void tearDown() {
+        Context.exit();
+    }
+
+    @Test
+    public void testValuesAreReadOnAccess() {
+        Map<String, Object> source = new HashMap<>();
+        source.put("title", "Title");
+        source.put("description", "Description");
+        Map<String, Object> map = spy(source);
+        ScriptableObject.putProperty(scope, "map", Context.javaToJS(map, scope));
+
+        Scriptable properties = (Scriptable) context.evaluateString(scope, "__lazyMap(map)", "test.js", 1, null);
+        verify(map, never()).keySet();
+        verify(map, never()).get("title");
+
+        assertEquals("Title", Context.toString(ScriptableObject.getProperty(properties, "title")));
+        assertEquals("Title", Context.toString(ScriptableObject.getProperty(properties, "title")));
+        verify(map, times(1)).get("title");
+        verify(map, never()).get("description");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoMap() {
+        context.evaluateString(scope, "__lazyMap('text')", "test.js", 1, null);
+    }
+}
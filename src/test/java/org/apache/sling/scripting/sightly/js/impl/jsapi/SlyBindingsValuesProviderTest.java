@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ ******************************************************************************/
+package org.apache.sling.scripting.sightly.js.impl.jsapi;
+
+import java.lang.reflect.Field;
+
+import javax.script.ScriptEngineManager;
+
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.scripting.LazyBindings;
+import org.apache.sling.scripting.sightly.js.impl.JsEnvironment;
+import org.apache.sling.scripting.sightly.js.impl.JsUseProvider;
+import org.apache.sling.scripting.sightly.js.impl.TestResources;
+import org.apache.sling.scripting.sightly.js.impl.TestScriptEngine;
+import org.apache.sling.scripting.sightly.js.impl.cache.CompiledScriptCache;
+import org.apache.sling.scripting.sightly.js.impl.use.DependencyResolver;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class SlyBindingsValuesProviderTest {
+
+    private ResourceResolver resolver;
+    private SlyBindingsValuesProvider provider;
+
+    @Before
+    public void setUp() {
+        resolver = TestResources.createResolver();
+        provider = new SlyBindingsValuesProvider();
+        SlyBindingsValuesProvider.Configuration configuration = mock(SlyBindingsValuesProvider.Configuration.class);
+        when(configuration.org_apache_sling_scripting_sightly_js_bindings())
+                .thenReturn(new String[] {"sightly:" + SlyBindingsValuesProvider.SLING_NS_PATH});
+        provider.activate(configuration, mock(BundleContext.class));
+    }
+
+    @After
+    public void tearDown() {
+        provider.deactivate(null);
+    }
+
+    @Test
+    public void testInitialiseWithoutRequest() {
+        JsEnvironment environment = new JsEnvironment(new TestScriptEngine(), new DependencyResolver(resolver), new CompiledScriptCache(0));
+        environment.initialize();
+        try {
+            // sly.js and its relative dependencies have to be resolved without a request, e.g. by the warm-up
+            provider.initialise(resolver, environment, new LazyBindings());
+        } finally {
+            environment.cleanup();
+        }
+        assertEquals(1, provider.getScriptPaths().size());
+        assertNull(provider.processNamespace(new LazyBindings(), "unknown", null));
+    }
+
+    @Test
+    public void testReloadDefaultFactories() throws Exception {
+        ResourceResolverFactory resourceResolverFactory = mock(ResourceResolverFactory.class);
+        when(resourceResolverFactory.getServiceResourceResolver(null)).thenReturn(resolver);
+        ScriptEngineManager scriptEngineManager = mock(ScriptEngineManager.class);
+        when(scriptEngineManager.getEngineByName(JsUseProvider.JS_ENGINE_NAME)).thenReturn(new TestScriptEngine());
+        setField(provider, "resourceResolverFactory", resourceResolverFactory);
+        setField(provider, "scriptEngineManager", scriptEngineManager);
+
+        provider.reload();
+
+        // the snapshot is only available if the factories were reloaded
+        assertNull(provider.processNamespace(new LazyBindings(), "unknown", null));
+        verify(resolver).close();
+    }
+
+    private static void setField(Object target, String name, Object value) throws ReflectiveOperationException {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+}
@@ -0,0 +1,69 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ ******************************************************************************/
+package org.apache.sling.scripting.sightly.js.impl.jsapi;
+
+import org.apache.sling.api.request.RequestPathInfo;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class SlyRequestPathInfoTest {
+
+    private Context context;
+    private Scriptable scope;
+
+    @Before
+    public void setUp() {
+        context = Context.enter();
+        scope = context.initStandardObjects();
+    }
+
+    @After
+    public void tearDown() {
+        Context.exit();
+    }
+
+    @Test
+    public void testCreatedInCallerScope() {
+        SlyRequestPathInfo pathInfo = new SlyRequestPathInfo(context.newObject(scope), mock(RequestPathInfo.class));
+
+        assertSame(scope, pathInfo.getParentScope());
+        assertSame(ScriptableObject.getObjectPrototype(scope), pathInfo.getPrototype());
+    }
+
+    @Test
+    public void testIds() {
+        RequestPathInfo nativePathInfo = mock(RequestPathInfo.class);
+        when(nativePathInfo.getExtension()).thenReturn("html");
+        SlyRequestPathInfo pathInfo = new SlyRequestPathInfo(scope, nativePathInfo);
+
+        // like the JavaScript implementation, only the native path info is an own enumerable property
+        assertArrayEquals(new Object[] {"nativePathInfo"}, pathInfo.getIds());
+        assertEquals("html", ScriptableObject.getProperty(pathInfo, "extension"));
+    }
+}
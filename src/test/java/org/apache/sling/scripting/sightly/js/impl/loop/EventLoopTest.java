@@ -0,0 +1,175 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ ******************************************************************************/
+package org.apache.sling.scripting.sightly.js.impl.loop;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.sling.scripting.sightly.SightlyException;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class EventLoopTest {
+
+    private final EventLoop eventLoop = new EventLoop();
+    private final List<String> calls = new ArrayList<>();
+
+    @Test
+    public void testMicrotasksRunBeforeTheNextMacrotask() {
+        eventLoop.schedule(new Task(() -> {
+            calls.add("macrotask 1");
+            eventLoop.schedule(new Task(() -> calls.add("macrotask 2")));
+            eventLoop.scheduleMicrotask(() -> {
+                calls.add("microtask 1");
+                eventLoop.scheduleMicrotask(() -> calls.add("microtask 2"));
+            });
+            calls.add("end of macrotask 1");
+        }));
+
+        assertCalls("macrotask 1", "end of macrotask 1", "microtask 1", "microtask 2", "macrotask 2");
+        assertEquals(4, eventLoop.getExecutedTasks());
+    }
+
+    @Test
+    public void testTasksRunImmediatelyWhenIdle() {
+        eventLoop.scheduleMicrotask(() -> calls.add("microtask"));
+        eventLoop.schedule(new Task(() -> calls.add("macrotask")));
+
+        assertCalls("microtask", "macrotask");
+    }
+
+    @Test
+    public void testRecycledMicrotasks() {
+        eventLoop.schedule(new Task(() -> {
+            for (int i = 0; i < 200; i++) {
+                final int index = i;
+                eventLoop.scheduleMicrotask(() -> calls.add(String.valueOf(index)));
+            }
+        }));
+        for (int i = 0; i < 200; i++) {
+            final int index = i;
+            eventLoop.scheduleMicrotask(() -> calls.add(String.valueOf(200 + index)));
+        }
+
+        assertEquals(400, calls.size());
+        for (int i = 0; i < 400; i++) {
+            assertEquals(String.valueOf(i), calls.get(i));
+        }
+        assertEquals(401, eventLoop.getExecutedTasks());
+        assertEquals(200, eventLoop.getMaxQueueDepth());
+    }
+
+    @Test
+    public void testDeactivatedTask() {
+        eventLoop.schedule(new Task(() -> {
+            Task task = new Task(() -> calls.add("deactivated"));
+            eventLoop.schedule(task);
+            eventLoop.schedule(new Task(() -> calls.add("active")));
+            task.deactivate();
+        }));
+
+        assertCalls("active");
+    }
+
+    @Test
+    public void testTimersRunInDueTimeOrder() {
+        eventLoop.schedule(new Task(() -> {
+            eventLoop.scheduleTimer(new Task(() -> calls.add("100 ms @" + eventLoop.getCurrentTime())), 100);
+            eventLoop.scheduleTimer(new Task(() -> calls.add("10 ms @" + eventLoop.getCurrentTime())), 10);
+            eventLoop.scheduleTimer(new Task(() -> calls.add("second 10 ms @" + eventLoop.getCurrentTime())), 10);
+            eventLoop.scheduleTimer(new Task(() -> calls.add("negative @" + eventLoop.getCurrentTime())), -5);
+            eventLoop.schedule(new Task(() -> calls.add("macrotask")));
+        }));
+
+        assertCalls("macrotask", "negative @0", "10 ms @10", "second 10 ms @10", "100 ms @100");
+        assertEquals(100, eventLoop.getCurrentTime());
+    }
+
+    @Test
+    public void testTimerDelaysAreRelativeToTheVirtualClock() {
+        eventLoop.scheduleTimer(new Task(() -> {
+            calls.add("outer @" + eventLoop.getCurrentTime());
+            eventLoop.scheduleTimer(new Task(() -> calls.add("inner @" + eventLoop.getCurrentTime())), 30);
+            eventLoop.scheduleMicrotask(() -> calls.add("microtask @" + eventLoop.getCurrentTime()));
+        }), 20);
+
+        assertCalls("outer @20", "microtask @20", "inner @50");
+    }
+
+    @Test
+    public void testClearedTimer() {
+        eventLoop.schedule(new Task(() -> {
+            Task cleared = new Task(() -> calls.add("cleared"));
+            eventLoop.scheduleTimer(cleared, 10);
+            eventLoop.scheduleTimer(new Task(() -> calls.add("kept @" + eventLoop.getCurrentTime())), 50);
+            cleared.deactivate();
+        }));
+
+        // the clock does not advance to the due time of a cleared timer
+        assertCalls("kept @50");
+        assertEquals(2, eventLoop.getExecutedTasks());
+    }
+
+    @Test
+    public void testErrorRethrownAfterDraining() {
+        try {
+            eventLoop.schedule(new Task(() -> {
+                eventLoop.schedule(new Task(() -> calls.add("macrotask")));
+                eventLoop.scheduleTimer(new Task(() -> calls.add("timer")), 10);
+                throw new IllegalStateException("first");
+            }));
+            fail("Expected the task's error.");
+        } catch (SightlyException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+            assertEquals("first", e.getCause().getMessage());
+        }
+        assertCalls("macrotask", "timer");
+        assertEquals(0, eventLoop.getCancelledTasks());
+    }
+
+    @Test
+    public void testFailFast() {
+        eventLoop.setFailFast(true);
+        try {
+            eventLoop.schedule(new Task(() -> {
+                eventLoop.schedule(new Task(() -> calls.add("macrotask")));
+                eventLoop.scheduleMicrotask(() -> calls.add("microtask"));
+                eventLoop.scheduleTimer(new Task(() -> calls.add("timer")), 10);
+                throw new IllegalStateException("first");
+            }));
+            fail("Expected the task's error.");
+        } catch (SightlyException e) {
+            assertEquals("first", e.getCause().getMessage());
+        }
+        assertCalls();
+        assertEquals(3, eventLoop.getCancelledTasks());
+
+        // the loop can be used again once it has thrown
+        eventLoop.schedule(new Task(() -> calls.add("after")));
+        assertCalls("after");
+    }
+
+    private void assertCalls(String... expected) {
+        assertEquals(Arrays.asList(expected), calls);
+    }
+}
@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ ******************************************************************************/
+package org.apache.sling.scripting.sightly.js.impl.rhino;
+
+import org.apache.sling.scripting.sightly.js.impl.TestScriptEngine;
+import org.junit.After;
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class ContextSessionTest {
+
+    private ContextSession session;
+
+    @After
+    public void tearDown() {
+        if (session != null) {
+            session.close();
+        }
+        assertNull(Context.getCurrentContext());
+    }
+
+    @Test
+    public void testInactiveSession() {
+        session = ContextSession.open();
+        assertNotNull(session);
+
+        ContextSession.enter();
+        ContextSession.exit();
+        // without begin, the session does not keep a context entered
+        assertNull(Context.getCurrentContext());
+    }
+
+    @Test
+    public void testActiveSessionKeepsTheContextUntilClosed() {
+        session = ContextSession.open();
+        ContextSession.begin(new TestScriptEngine());
+        Context context = Context.getCurrentContext();
+        assertNotNull(context);
+
+        assertSame(context, ContextSession.enter());
+        ContextSession.exit();
+        assertSame(context, Context.getCurrentContext());
+
+        session.close();
+        session = null;
+        assertNull(Context.getCurrentContext());
+    }
+
+    @Test
+    public void testBeginIgnoresForeignContext() {
+        session = ContextSession.open();
+        Context foreign = Context.enter();
+        try {
+            ContextSession.begin(new TestScriptEngine());
+            session.close();
+            session = null;
+            // the context entered by someone else is not exited by the session
+            assertSame(foreign, Context.getCurrentContext());
+        } finally {
+            Context.exit();
+        }
+    }
+
+    @Test
+    public void testNestedOpen() {
+        session = ContextSession.open();
+        assertNull(ContextSession.open());
+    }
+}
@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ ******************************************************************************/
+package org.apache.sling.scripting.sightly.js.impl.rhino;
+
+import javax.script.Bindings;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.SimpleBindings;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class EngineContextTest {
+
+    private final ContextFactory engineFactory = new ContextFactory() {
+        @Override
+        protected void onContextCreated(Context cx) {
+            super.onContextCreated(cx);
+            cx.setLanguageVersion(Context.VERSION_1_8);
+            cx.setOptimizationLevel(-1);
+            cx.setInstructionObserverThreshold(10000);
+        }
+    };
+
+    private EngineContext engineContext;
+
+    @Before
+    public void setUp() throws Exception {
+        ScriptEngine engine = mock(ScriptEngine.class);
+        when(engine.getFactory()).thenReturn(mock(ScriptEngineFactory.class));
+        when(engine.createBindings()).thenReturn(new SimpleBindings());
+        when(engine.eval(anyString(), any(Bindings.class))).thenAnswer(invocation -> {
+            Bindings bindings = invocation.getArgument(1);
+            Function probe = (Function) bindings.values().iterator().next();
+            return engineFactory.call(cx -> probe.call(cx, cx.initStandardObjects(), null, new Object[0]));
+        });
+        engineContext = EngineContext.of(engine);
+    }
+
+    @After
+    public void tearDown() {
+        assertNull(Context.getCurrentContext());
+    }
+
+    @Test
+    public void testNewContextIsCreatedByTheEngineFactory() {
+        try (EngineContext.Entered entered = engineContext.enter()) {
+            Context context = entered.getContext();
+            assertSame(engineFactory, context.getFactory());
+            assertEquals(Context.VERSION_1_8, context.getLanguageVersion());
+            assertEquals(10000, context.getInstructionObserverThreshold());
+        }
+    }
+
+    @Test
+    public void testSettingsAreCopiedOntoTheCurrentContext() {
+        Context current = Context.enter();
+        try {
+            int languageVersion = current.getLanguageVersion();
+            int optimizationLevel = current.getOptimizationLevel();
+            try (EngineContext.Entered entered = engineContext.enter()) {
+                assertSame(current, entered.getContext());
+                assertEquals(Context.VERSION_1_8, current.getLanguageVersion());
+                assertEquals(-1, current.getOptimizationLevel());
+                assertEquals(10000, current.getInstructionObserverThreshold());
+            }
+            assertSame(current, Context.getCurrentContext());
+            assertEquals(languageVersion, current.getLanguageVersion());
+            assertEquals(optimizationLevel, current.getOptimizationLevel());
+            assertEquals(0, current.getInstructionObserverThreshold());
+        } finally {
+            Context.exit();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ ******************************************************************************/
+package org.apache.sling.scripting.sightly.js.impl.rhino;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.sling.scripting.sightly.js.impl.async.AsyncExtractor;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+public class JsValueAdapterTest {
+
+    private final JsValueAdapter lazyAdapter = new JsValueAdapter(new AsyncExtractor(), true, false);
+
+    @Test
+    public void testLazyRandomAccessList() {
+        List<Object> list = new ArrayList<>(Arrays.asList("a", "b", "c"));
+        assertEquals(list, lazyAdapter.adapt(list));
+    }
+
+    @Test
+    public void testLazySequentialList() {
+        List<Object> list = spy(new LinkedList<>(Arrays.asList("a", "b", "c")));
+        List<?> adapted = (List<?>) lazyAdapter.adapt(list);
+
+        assertEquals(Arrays.asList("a", "b", "c"), adapted);
+        verify(list, never()).get(anyInt());
+    }
+
+    @Test
+    public void testLazyMapIsReadOnly() {
+        Map<Object, Object> source = new HashMap<>();
+        source.put("a", "b");
+        Map<?, ?> adapted = (Map<?, ?>) lazyAdapter.adapt(source);
+
+        assertUnsupported(() -> adapted.keySet().clear());
+        assertUnsupported(() -> adapted.keySet().remove("a"));
+        assertUnsupported(() -> adapted.entrySet().clear());
+        assertUnsupported(() -> adapted.values().clear());
+        assertEquals(1, source.size());
+    }
+
+    @Test
+    public void testRegisteredConverter() {
+        JsValueAdapter adapter = new JsValueAdapter(new AsyncExtractor());
+        Amount amount = new Amount(5);
+        assertSame(amount, adapter.adapt(amount));
+
+        adapter.registerConverter(Amount.class, (value, conversion) -> value.value + " EUR");
+        assertEquals("5 EUR", adapter.adapt(amount));
+        assertEquals("7 EUR", adapter.adapt(new Amount(7) {}));
+        assertEquals("text", adapter.adapt("text"));
+    }
+
+    @Test
+    public void testFirstRegisteredConverterWins() {
+        JsValueAdapter adapter = new JsValueAdapter(new AsyncExtractor());
+        adapter.registerConverter(Amount.class, (value, conversion) -> "first");
+        adapter.registerConverter(Object.class, (value, conversion) -> "second");
+
+        assertEquals("first", adapter.adapt(new Amount(1)));
+        assertEquals("second", adapter.adapt("text"));
+    }
+
+    private static void assertUnsupported(Runnable operation) {
+        try {
+            operation.run();
+            fail("Expected an UnsupportedOperationException.");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    private static class Amount {
+
+        private final int value;
+
+        Amount(int value) {
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ ******************************************************************************/
+package org.apache.sling.scripting.sightly.js.impl.use;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class DependencyResolutionCacheTest {
+
+    private static final DependencyResolutionCache.Key KEY =
+            new DependencyResolutionCache.Key("helper.js", "/apps/test/main.js", "test/component");
+
+    @Test
+    public void testPutAndGet() {
+        DependencyResolutionCache cache = createCache(10);
+        cache.put(KEY, cache.getGeneration(), "/apps/test/helper.js");
+
+        assertEquals("/apps/test/helper.js",
+                cache.get(new DependencyResolutionCache.Key("helper.js", "/apps/test/main.js", "test/component")));
+        assertNull(cache.get(new DependencyResolutionCache.Key("helper.js", "/apps/test/main.js", null)));
+        assertNull(cache.get(new DependencyResolutionCache.Key("helper.js", null, "test/component")));
+
+        cache.remove(KEY);
+        assertNull(cache.get(KEY));
+    }
+
+    @Test
+    public void testKeyWithoutCallerAndResourceType() {
+        DependencyResolutionCache cache = createCache(10);
+        DependencyResolutionCache.Key key = new DependencyResolutionCache.Key("/apps/test/helper.js", null, null);
+        cache.put(key, cache.getGeneration(), "/apps/test/helper.js");
+
+        assertEquals("/apps/test/helper.js", cache.get(new DependencyResolutionCache.Key("/apps/test/helper.js", null, null)));
+    }
+
+    @Test
+    public void testChangeInvalidatesTheCache() {
+        DependencyResolutionCache cache = createCache(10);
+        long generation = cache.getGeneration();
+        cache.put(KEY, generation, "/apps/test/helper.js");
+        cache.onChange(Collections.emptyList());
+
+        assertNull(cache.get(KEY));
+        assertNotEquals(generation, cache.getGeneration());
+    }
+
+    @Test
+    public void testResolutionStartedBeforeAnInvalidationIsNotStored() {
+        DependencyResolutionCache cache = createCache(10);
+        long generation = cache.getGeneration();
+        // the resolution runs while a script is changed
+        cache.onChange(Collections.emptyList());
+        cache.put(KEY, generation, "/apps/test/helper.js");
+
+        assertNull(cache.get(KEY));
+        cache.put(KEY, cache.getGeneration(), "/apps/test/helper.js");
+        assertEquals("/apps/test/helper.js", cache.get(KEY));
+    }
+
+    @Test
+    public void testCacheIsClearedWhenFull() {
+        DependencyResolutionCache cache = createCache(2);
+        DependencyResolutionCache.Key first = new DependencyResolutionCache.Key("a.js", null, null);
+        DependencyResolutionCache.Key second = new DependencyResolutionCache.Key("b.js", null, null);
+        DependencyResolutionCache.Key third = new DependencyResolutionCache.Key("c.js", null, null);
+        cache.put(first, cache.getGeneration(), "/apps/a.js");
+        cache.put(second, cache.getGeneration(), "/apps/b.js");
+        cache.put(third, cache.getGeneration(), "/apps/c.js");
+
+        assertNull(cache.get(first));
+        assertNull(cache.get(second));
+        assertEquals("/apps/c.js", cache.get(third));
+    }
+
+    @Test
+    public void testDisabled() {
+        DependencyResolutionCache cache = createCache(0);
+        cache.put(KEY, cache.getGeneration(), "/apps/test/helper.js");
+
+        assertNull(cache.get(KEY));
+    }
+
+    private static DependencyResolutionCache createCache(int size) {
+        DependencyResolutionCache.Configuration configuration = mock(DependencyResolutionCache.Configuration.class);
+        when(configuration.cache_size()).thenReturn(size);
+        DependencyResolutionCache cache = new DependencyResolutionCache();
+        cache.activate(configuration);
+        return cache;
+    }
+}